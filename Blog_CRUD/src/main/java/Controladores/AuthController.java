@@ -1,26 +1,34 @@
 package Controladores;
 
+import app.java.CachePaginas;
 import app.java.DatabaseUtil;
 import app.java.InputConstraints;
 import app.java.InputSanitizer;
+import app.java.PasswordUtil;
 import io.javalin.http.Context;
 import modelos.User;
-import org.jasypt.util.text.BasicTextEncryptor;
+import modelos.UsuarioSesion;
+import servicios.AgregadoEtiquetas;
+import servicios.ArticuloServicios;
+import servicios.ArticulosRelacionados;
+import servicios.AvatarServicios;
+import servicios.BusquedaServicios;
+import servicios.RankingTendencias;
+import servicios.RecordarSesionServicios;
 import servicios.UsuarioServicios;
 
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import servicios.LoginAttemptService;
 public class AuthController {
 
     private static final String COOKIE_NAME = "rememberMe";
-    private static final String ENCRYPTION_PASSWORD = "claveSecreta";
 
     /**
      * Regenera el ID de sesión para prevenir ataques de Session Fixation.
@@ -43,33 +51,19 @@ public class AuthController {
 
     public static void mostrarLogin(Context ctx) {
         // Verificar si hay una cookie de "Recordar usuario"
-        String encryptedUsername = ctx.cookie(COOKIE_NAME);
-        if (encryptedUsername != null) {
-            BasicTextEncryptor encryptor = new BasicTextEncryptor();
-            encryptor.setPassword(ENCRYPTION_PASSWORD);
-            String username = encryptor.decrypt(encryptedUsername);
-
-            // Trim username from cookie and authenticate
-            if (username != null) username = username.trim();
-
-            // Autenticar automáticamente al usuario
-            EntityManager em = DatabaseUtil.getEntityManager();
-            try {
-                User usuario = em.createQuery(
-                                "SELECT u FROM User u WHERE u.username = :username", User.class)
-                        .setParameter("username", username)
-                        .getSingleResult();
-
+        String token = ctx.cookie(COOKIE_NAME);
+        if (token != null) {
+            // Autenticar automáticamente al usuario (firma HMAC + caché, sin consultar la BD si ya se vio)
+            UsuarioSesion usuario = RecordarSesionServicios.verificar(token);
+            if (usuario != null) {
                 // Regenerar sesión antes de establecer el usuario
                 regenerateSession(ctx);
                 ctx.sessionAttribute("usuario", usuario);
                 ctx.redirect("/index");
                 return;
-            } catch (NoResultException e) {
-                // Si no se encuentra el usuario, simplemente mostrar el formulario de login
-            } finally {
-                em.close();
             }
+            // Token inválido, expirado o revocado: se descarta la cookie
+            ctx.removeCookie(COOKIE_NAME);
         }
 
         // Mostrar el formulario de login
@@ -103,51 +97,77 @@ public class AuthController {
             return;
         }
 
-        // Use UsuarioServicios which checks bcrypt-hashed passwords
-        User usuario = UsuarioServicios.autenticar(username, password);
-        if (usuario != null) {
-            // SECURITY: Limpiar intentos fallidos al iniciar sesión exitosamente
-            LoginAttemptService.loginSucceeded(username, ipAddress);
-
-            // IMPORTANTE: Regenerar el ID de sesión ANTES de establecer el usuario
-            // Esto previene ataques de Session Fixation
-            regenerateSession(ctx);
-
-            // Ahora sí, establecer el usuario en la nueva sesión
-            ctx.sessionAttribute("usuario", usuario);
+        // Use UsuarioServicios which checks bcrypt-hashed passwords (en el pool de bcrypt)
+        CompletableFuture<User> autenticacion;
+        try {
+            autenticacion = UsuarioServicios.autenticarAsync(username, password);
+        } catch (RejectedExecutionException e) {
+            responderSobrecarga(ctx, "login.html");
+            return;
+        }
 
-            // Si el usuario marcó "Recordar usuario", crear una cookie encriptada
-            if (recordar) {
-                BasicTextEncryptor encryptor = new BasicTextEncryptor();
-                encryptor.setPassword(ENCRYPTION_PASSWORD);
-                String encryptedUsername = encryptor.encrypt(username);
+        String usernameFinal = username;
+        ctx.future(() -> autenticacion.thenAccept(usuario -> {
+            if (usuario != null) {
+                // SECURITY: Limpiar intentos fallidos al iniciar sesión exitosamente
+                LoginAttemptService.loginSucceeded(usernameFinal, ipAddress);
 
-                // Crear la cookie con una duración de 1 semana (604800 segundos)
-                ctx.cookie(COOKIE_NAME, encryptedUsername, 604800);
-            }
+                // IMPORTANTE: Regenerar el ID de sesión ANTES de establecer el usuario
+                // Esto previene ataques de Session Fixation
+                regenerateSession(ctx);
 
-            ctx.redirect("/index");
-        } else {
-            // SECURITY: Registrar el intento fallido
-            LoginAttemptService.loginFailed(username, ipAddress);
+                // Ahora sí, establecer el usuario en la nueva sesión
+                ctx.sessionAttribute("usuario", UsuarioSesion.desde(usuario));
 
-            // Informar al usuario cuántos intentos le quedan
-            int remainingAttempts = LoginAttemptService.getRemainingAttempts(username);
+                // Si el usuario marcó "Recordar usuario", crear una cookie con un token firmado
+                if (recordar) {
+                    // La cookie dura lo mismo que el token (1 semana)
+                    ctx.cookie(COOKIE_NAME, RecordarSesionServicios.emitir(usuario),
+                            RecordarSesionServicios.DURACION_SEGUNDOS);
+                }
 
-            if (remainingAttempts > 0) {
-                ctx.attribute("error", "Usuario o contraseña incorrectos. " +
-                        "Tienes " + remainingAttempts + " intento(s) restante(s) antes del bloqueo temporal.");
+                ctx.redirect("/index");
             } else {
-                ctx.attribute("error", "Usuario o contraseña incorrectos. " +
-                        "Tu cuenta ha sido bloqueada temporalmente por múltiples intentos fallidos.");
+                // SECURITY: Registrar el intento fallido
+                LoginAttemptService.loginFailed(usernameFinal, ipAddress);
+
+                // Informar al usuario cuántos intentos le quedan
+                int remainingAttempts = LoginAttemptService.getRemainingAttempts(usernameFinal);
+
+                if (remainingAttempts > 0) {
+                    ctx.attribute("error", "Usuario o contraseña incorrectos. " +
+                            "Tienes " + remainingAttempts + " intento(s) restante(s) antes del bloqueo temporal.");
+                } else {
+                    ctx.attribute("error", "Usuario o contraseña incorrectos. " +
+                            "Tu cuenta ha sido bloqueada temporalmente por múltiples intentos fallidos.");
+                }
+
+                ctx.render("login.html");
             }
+        }));
+    }
 
-            ctx.render("login.html");
+    /**
+     * El pool de bcrypt está lleno: se responde 503 de inmediato en lugar de hacer esperar al cliente.
+     * @param vista plantilla a mostrar con el error, o null para responder solo texto
+     */
+    private static void responderSobrecarga(Context ctx, String vista) {
+        String mensaje = "El servidor está ocupado. Por favor, intenta de nuevo en unos segundos.";
+        ctx.status(503).header("Retry-After", "2");
+        if (vista != null) {
+            ctx.attribute("error", mensaje);
+            ctx.render(vista);
+        } else {
+            ctx.result(mensaje);
         }
     }
 
     public static void logout(Context ctx) {
-        // Eliminar la cookie "Recordar usuario"
+        // Revocar los tokens "Recordar usuario" y eliminar la cookie
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
+        if (usuario != null && ctx.cookie(COOKIE_NAME) != null) {
+            RecordarSesionServicios.revocar(usuario.getId());
+        }
         ctx.removeCookie(COOKIE_NAME);
 
         // Invalidar la sesión completamente (esto destruye el JSESSIONID en el servidor)
@@ -169,7 +189,7 @@ public class AuthController {
     public static void toggleAdmin(Context ctx) {
         // Se recibe el id en lugar del username
         Long id = Long.parseLong(ctx.formParam("id"));
-        User usuarioSesion = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuarioSesion = ctx.sessionAttribute("usuario");
 
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
@@ -189,6 +209,7 @@ public class AuthController {
             }
 
             em.getTransaction().commit();
+            RecordarSesionServicios.olvidarUsuario(id);
             ctx.redirect("/usuarios");
         } finally {
             em.close();
@@ -209,6 +230,7 @@ public class AuthController {
             }
 
             em.getTransaction().commit();
+            RecordarSesionServicios.olvidarUsuario(id);
             ctx.redirect("/usuarios");
         } finally {
             em.close();
@@ -219,15 +241,38 @@ public class AuthController {
         Long id = Long.parseLong(ctx.formParam("id"));
 
         EntityManager em = DatabaseUtil.getEntityManager();
+        List<Long> propios = Collections.emptyList();
         try {
             em.getTransaction().begin();
 
             User user = em.find(User.class, id);
             if (user != null) {
+                // Sus artículos se borran en cascada y salen del ranking de tendencias
+                propios = em.createQuery("SELECT a.id FROM Articulo a WHERE a.autor.id = :id", Long.class)
+                        .setParameter("id", id)
+                        .getResultList();
+                // Sus comentarios en artículos de otros autores se borran en cascada: esos
+                // artículos necesitan recalcular su contador
+                List<Long> comentados = em.createQuery(
+                                "SELECT DISTINCT c.articulo.id FROM Comentario c " +
+                                "WHERE c.autor.id = :id AND c.articulo.autor.id <> :id", Long.class)
+                        .setParameter("id", id)
+                        .getResultList();
                 em.remove(user);
+                em.flush();
+                ArticuloServicios.repararContadores(em, comentados);
+                // Tampoco cambia su fechaModificacion: el índice de búsqueda los reindexa aparte
+                comentados.forEach(BusquedaServicios::marcarCambio);
             }
 
             em.getTransaction().commit();
+            RecordarSesionServicios.olvidarUsuario(id);
+            // Sus artículos y comentarios se eliminan en cascada
+            propios.forEach(RankingTendencias::articuloEliminado);
+            CachePaginas.invalidarTodo();
+            BusquedaServicios.programarReconciliacion();
+            AgregadoEtiquetas.reconstruir();
+            ArticulosRelacionados.programarReconstruccion();
             ctx.redirect("/usuarios");
         } finally {
             em.close();
@@ -274,8 +319,6 @@ public class AuthController {
 
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
-            em.getTransaction().begin();
-
             // Verificar username único (excluyendo el usuario con este id)
             boolean existe = em.createQuery(
                             "SELECT COUNT(u) FROM User u WHERE u.username = :username AND u.id != :id", Long.class)
@@ -289,26 +332,49 @@ public class AuthController {
                 ctx.render("usuarios.html", Map.of("usuarios", usuarios));
                 return;
             }
-
-            User usuario = em.find(User.class, id);
-            if (usuario != null) {
-                usuario.setNombre(nombre);
-                usuario.setUsername(username);
-                usuario.setPassword(password);
-                em.merge(usuario);
-
-                // Actualizar sesión si es el mismo usuario
-                User sesion = ctx.sessionAttribute("usuario");
-                if (sesion != null && sesion.getId().equals(id)) {
-                    ctx.sessionAttribute("usuario", usuario);
-                }
-            }
-
-            em.getTransaction().commit();
-            ctx.redirect("/usuarios");
         } finally {
             em.close();
         }
+
+        // El hash se calcula fuera del hilo HTTP y los cambios se guardan al terminar
+        CompletableFuture<String> hash;
+        try {
+            hash = PasswordUtil.hashPasswordAsync(password);
+        } catch (RejectedExecutionException e) {
+            responderSobrecarga(ctx, null);
+            return;
+        }
+
+        String nombreFinal = nombre;
+        String usernameFinal = username;
+        ctx.future(() -> hash.thenAccept(passwordHash -> {
+            EntityManager emActualizar = DatabaseUtil.getEntityManager();
+            try {
+                emActualizar.getTransaction().begin();
+                User usuario = emActualizar.find(User.class, id);
+                if (usuario != null) {
+                    usuario.setNombre(nombreFinal);
+                    usuario.setUsername(usernameFinal);
+                    usuario.setPasswordHash(passwordHash);
+                    // Nueva contraseña: se revocan sus tokens "Recordar usuario"
+                    usuario.setVersionToken(usuario.getVersionToken() != null ? usuario.getVersionToken() + 1 : 1);
+
+                    // Actualizar sesión si es el mismo usuario
+                    UsuarioSesion sesion = ctx.sessionAttribute("usuario");
+                    if (sesion != null && sesion.getId().equals(id)) {
+                        ctx.sessionAttribute("usuario", UsuarioSesion.desde(usuario));
+                    }
+                }
+                emActualizar.getTransaction().commit();
+                RecordarSesionServicios.olvidarUsuario(id);
+                CachePaginas.invalidarTodo();
+                BusquedaServicios.marcarAutor(id);
+                ctx.redirect("/usuarios");
+            } finally {
+                if (emActualizar.getTransaction().isActive()) emActualizar.getTransaction().rollback();
+                emActualizar.close();
+            }
+        }));
     }
 
     public static void crearUsuario(Context ctx) {
@@ -351,8 +417,6 @@ public class AuthController {
 
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
-            em.getTransaction().begin();
-
             // Verificar si existe
             Long count = em.createQuery(
                             "SELECT COUNT(u) FROM User u WHERE u.username = :username", Long.class)
@@ -365,21 +429,37 @@ public class AuthController {
                 ctx.render("usuarios.html", Map.of("usuarios", usuarios));
                 return;
             }
-
-            User nuevoUsuario = new User();
-            nuevoUsuario.setNombre(nombre);
-            nuevoUsuario.setUsername(username);
-            nuevoUsuario.setPassword(password);
-            nuevoUsuario.setAdmin(isAdmin);
-            nuevoUsuario.setAutor(isAutor);
-
-            em.persist(nuevoUsuario);
-            em.getTransaction().commit();
-
-            ctx.redirect("/usuarios");
         } finally {
             em.close();
         }
+
+        CompletableFuture<String> hash;
+        try {
+            hash = PasswordUtil.hashPasswordAsync(password);
+        } catch (RejectedExecutionException e) {
+            responderSobrecarga(ctx, null);
+            return;
+        }
+
+        User nuevoUsuario = new User();
+        nuevoUsuario.setNombre(nombre);
+        nuevoUsuario.setUsername(username);
+        nuevoUsuario.setAdmin(isAdmin);
+        nuevoUsuario.setAutor(isAutor);
+
+        ctx.future(() -> hash.thenAccept(passwordHash -> {
+            nuevoUsuario.setPasswordHash(passwordHash);
+            EntityManager emCrear = DatabaseUtil.getEntityManager();
+            try {
+                emCrear.getTransaction().begin();
+                emCrear.persist(nuevoUsuario);
+                emCrear.getTransaction().commit();
+                ctx.redirect("/usuarios");
+            } finally {
+                if (emCrear.getTransaction().isActive()) emCrear.getTransaction().rollback();
+                emCrear.close();
+            }
+        }));
     }
 
     public static void mostrarRegistro(Context ctx) {
@@ -413,8 +493,6 @@ public class AuthController {
 
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
-            em.getTransaction().begin();
-
             // Verificar si el username ya existe
             boolean existe = em.createQuery(
                             "SELECT COUNT(u) FROM User u WHERE u.username = :username", Long.class)
@@ -426,91 +504,105 @@ public class AuthController {
                 ctx.render("registro.html");
                 return;
             }
+        } finally {
+            em.close();
+        }
 
-            // Crear nuevo usuario
-            User nuevoUsuario = new User();
-            nuevoUsuario.setNombre(nombre);
-            nuevoUsuario.setUsername(username);
-            nuevoUsuario.setPassword(password);
-
-            // Manejo de la foto de perfil
-            boolean fotoSubida = false;
-
-            // Procesar foto subida
-            for (var uploadedFile : ctx.uploadedFiles("foto")) {
-                if (uploadedFile != null && !uploadedFile.filename().isEmpty()) {
-                    try {
-                        // SECURITY: Validate file size to prevent DoS attacks
-                        long fileSize = uploadedFile.size();
-                        if (InputConstraints.exceedsMaxFileSize(fileSize)) {
-                            ctx.attribute("error", "La foto es demasiado grande. Tamaño máximo permitido: " + InputConstraints.getMaxFileSizeFormatted());
-                            ctx.render("registro.html");
-                            return;
-                        }
-
-                        // Validate file type (only images)
-                        String contentType = uploadedFile.contentType();
-                        if (contentType == null || !contentType.startsWith("image/")) {
-                            ctx.attribute("error", "El archivo debe ser una imagen válida");
-                            ctx.render("registro.html");
-                            return;
-                        }
-
-                        byte[] bytes = uploadedFile.content().readAllBytes();
-                        String encodedString = Base64.getEncoder().encodeToString(bytes);
-
-                        nuevoUsuario.setFotoNombre(uploadedFile.filename());
-                        nuevoUsuario.setFotoMimeType(uploadedFile.contentType());
-                        nuevoUsuario.setFotoBase64(encodedString);
-                        fotoSubida = true;
-
-                    } catch (IOException e) {
-                        ctx.status(500).result("Error al procesar la foto subida");
+        // Crear nuevo usuario
+        User nuevoUsuario = new User();
+        nuevoUsuario.setNombre(nombre);
+        nuevoUsuario.setUsername(username);
+
+        // Manejo de la foto de perfil
+        boolean fotoSubida = false;
+        // La foto subida se escribe en el almacén después de guardar el usuario
+        byte[] fotoBytes = null;
+
+        // Procesar foto subida
+        for (var uploadedFile : ctx.uploadedFiles("foto")) {
+            if (uploadedFile != null && !uploadedFile.filename().isEmpty()) {
+                try {
+                    // SECURITY: Validate file size to prevent DoS attacks
+                    long fileSize = uploadedFile.size();
+                    if (InputConstraints.exceedsMaxFileSize(fileSize)) {
+                        ctx.attribute("error", "La foto es demasiado grande. Tamaño máximo permitido: " + InputConstraints.getMaxFileSizeFormatted());
+                        ctx.render("registro.html");
                         return;
                     }
-                }
-            }
-
-            // Asignar foto por defecto si no se subió ninguna
-            if (!fotoSubida) {
-                try (InputStream defaultFotoStream = Thread.currentThread()
-                        .getContextClassLoader()
-                        .getResourceAsStream("publico/default.png")) {
 
-                    if (defaultFotoStream == null) {
-                        throw new IOException("No se encontró la imagen por defecto");
+                    // Validate file type by its content (PNG, JPEG, GIF or WebP), not by the browser's Content-Type
+                    byte[] bytes = uploadedFile.content().readAllBytes();
+                    String tipo = AvatarServicios.detectarTipo(bytes);
+                    if (tipo == null) {
+                        ctx.attribute("error", "El archivo debe ser una imagen PNG, JPEG, GIF o WebP");
+                        ctx.render("registro.html");
+                        return;
                     }
 
-                    byte[] bytes = defaultFotoStream.readAllBytes();
-                    String encodedString = Base64.getEncoder().encodeToString(bytes);
-
-                    nuevoUsuario.setFotoNombre("default.png");
-                    nuevoUsuario.setFotoMimeType("image/png");
-                    nuevoUsuario.setFotoBase64(encodedString);
+                    nuevoUsuario.setFotoNombre(uploadedFile.filename());
+                    nuevoUsuario.setFotoMimeType(tipo);
+                    nuevoUsuario.setFotoHash(AvatarServicios.calcularHash(bytes));
+                    fotoBytes = bytes;
+                    fotoSubida = true;
 
                 } catch (IOException e) {
-                    ctx.status(500).result("Error al cargar la foto por defecto: " + e.getMessage());
+                    ctx.status(500).result("Error al procesar la foto subida");
                     return;
                 }
             }
+        }
 
-            em.persist(nuevoUsuario);
-            em.getTransaction().commit();
-
-            ctx.sessionAttribute("usuario", nuevoUsuario);
-            ctx.redirect("/index");
+        // Asignar foto por defecto si no se subió ninguna
+        if (!fotoSubida) {
+            try {
+                // Todos los usuarios sin foto comparten el mismo archivo del almacén
+                nuevoUsuario.setFotoNombre("default.png");
+                nuevoUsuario.setFotoMimeType("image/png");
+                nuevoUsuario.setFotoHash(AvatarServicios.obtenerHashPorDefecto());
 
-        } catch (Exception e) {
-            if (em.getTransaction().isActive()) {
-                em.getTransaction().rollback();
+            } catch (IOException e) {
+                ctx.status(500).result("Error al cargar la foto por defecto: " + e.getMessage());
+                return;
             }
-            ctx.status(500).result("Error al registrar usuario: " + e.getMessage());
-        } finally {
-            em.close();
         }
+
+        // El hash bcrypt se calcula en su propio pool; el usuario se guarda al terminar
+        CompletableFuture<String> hash;
+        try {
+            hash = PasswordUtil.hashPasswordAsync(password);
+        } catch (RejectedExecutionException e) {
+            responderSobrecarga(ctx, "registro.html");
+            return;
+        }
+
+        byte[] foto = fotoBytes;
+        ctx.future(() -> hash.thenAccept(passwordHash -> {
+            nuevoUsuario.setPasswordHash(passwordHash);
+            EntityManager emRegistro = DatabaseUtil.getEntityManager();
+            try {
+                emRegistro.getTransaction().begin();
+                emRegistro.persist(nuevoUsuario);
+                emRegistro.getTransaction().commit();
+                // Recién ahora se escribe la foto: un registro fallido no deja archivos huérfanos
+                if (foto != null) {
+                    guardarFoto(foto);
+                }
+
+                ctx.sessionAttribute("usuario", UsuarioSesion.desde(nuevoUsuario));
+                ctx.redirect("/index");
+
+            } catch (Exception e) {
+                if (emRegistro.getTransaction().isActive()) {
+                    emRegistro.getTransaction().rollback();
+                }
+                ctx.status(500).result("Error al registrar usuario: " + e.getMessage());
+            } finally {
+                emRegistro.close();
+            }
+        }));
     }
     public static void mostrarPerfil(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) {
             ctx.redirect("/login");
             return;
@@ -519,7 +611,7 @@ public class AuthController {
     }
 
     public static void actualizarPerfil(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) {
             ctx.redirect("/login");
             return;
@@ -534,34 +626,33 @@ public class AuthController {
         username = InputSanitizer.stripTags(username);
         if (username != null) username = username.trim();
 
+        // Copia con los valores ingresados para volver a mostrarlos si hay un error
+        UsuarioSesion ingresado = new UsuarioSesion(usuario.getId(), username, nombre,
+                usuario.isAdmin(), usuario.isAutor(), usuario.getFotoHash());
+
         Map<String, String> validation = InputConstraints.validateUserInput(username, nombre, null);
         if (!validation.isEmpty()) {
             // Return to perfil page with the error message and keep entered values
-            usuario.setNombre(nombre);
-            usuario.setUsername(username);
-            ctx.render("perfil.html", Map.of("usuario", usuario, "error", validation.values().iterator().next()));
+            ctx.render("perfil.html", Map.of("usuario", ingresado, "error", validation.values().iterator().next()));
             return;
         }
 
         // Ensure username is not empty
         if (username == null || username.isEmpty()) {
-            usuario.setNombre(nombre);
-            usuario.setUsername(username);
-            ctx.render("perfil.html", Map.of("usuario", usuario, "error", "El nombre de usuario no puede estar vacío"));
+            ctx.render("perfil.html", Map.of("usuario", ingresado, "error", "El nombre de usuario no puede estar vacío"));
             return;
         }
 
         // Actualizar datos básicos
-        usuario.setNombre(nombre);
-        usuario.setUsername(username);
-
-        UsuarioServicios.actualizarUsuario(usuario);
-        ctx.sessionAttribute("usuario", usuario); // Actualizar sesión
+        User actualizado = UsuarioServicios.actualizarDatos(usuario.getId(), nombre, username);
+        if (actualizado != null) {
+            ctx.sessionAttribute("usuario", UsuarioSesion.desde(actualizado)); // Actualizar sesión
+        }
         ctx.redirect("/index");
     }
 
     public static void actualizarFoto(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
 
         ctx.uploadedFiles("foto").forEach(uploadedFile -> {
             try {
@@ -572,21 +663,20 @@ public class AuthController {
                     return;
                 }
 
-                // Validate file type (only images)
-                String contentType = uploadedFile.contentType();
-                if (contentType == null || !contentType.startsWith("image/")) {
-                    ctx.status(400).result("El archivo debe ser una imagen válida");
+                // Validate file type by its content (PNG, JPEG, GIF or WebP), not by the browser's Content-Type
+                byte[] bytes = uploadedFile.content().readAllBytes();
+                String tipo = AvatarServicios.detectarTipo(bytes);
+                if (tipo == null) {
+                    ctx.status(400).result("El archivo debe ser una imagen PNG, JPEG, GIF o WebP");
                     return;
                 }
 
-                byte[] bytes = uploadedFile.content().readAllBytes();
-                String encodedString = Base64.getEncoder().encodeToString(bytes);
-
-                usuario.setFotoNombre(uploadedFile.filename());
-                usuario.setFotoMimeType(uploadedFile.contentType());
-                usuario.setFotoBase64(encodedString);
-
-                UsuarioServicios.actualizarUsuario(usuario);
+                User actualizado = UsuarioServicios.actualizarFoto(usuario.getId(),
+                        uploadedFile.filename(), tipo, AvatarServicios.calcularHash(bytes));
+                if (actualizado != null) {
+                    AvatarServicios.guardar(bytes);
+                    ctx.sessionAttribute("usuario", UsuarioSesion.desde(actualizado));
+                }
 
             } catch (IOException e) {
                 ctx.status(500).result("Error al procesar la foto");
@@ -594,4 +684,13 @@ public class AuthController {
         });
         ctx.redirect("/perfil");
     }
+
+    // El usuario ya quedó guardado: si falla la escritura se registra el error y la foto no se muestra
+    private static void guardarFoto(byte[] foto) {
+        try {
+            AvatarServicios.guardar(foto);
+        } catch (IOException e) {
+            System.err.println("No se pudo guardar la foto de perfil: " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package Controladores;
+
+import io.javalin.http.Context;
+import org.eclipse.jetty.server.HttpOutput;
+import servicios.AvatarServicios;
+
+import jakarta.servlet.ServletOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class AvatarController {
+
+    // El contenido de un hash no cambia nunca: se puede cachear un año sin revalidar
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    /**
+     * GET /avatars/{hash}
+     * Sirve la imagen con un ETag fuerte (el propio hash) y responde 304 si el navegador ya la tiene.
+     */
+    public static void servirAvatar(Context ctx) throws IOException {
+        String hash = ctx.pathParam("hash");
+        Path archivo = AvatarServicios.obtenerArchivo(hash);
+        if (archivo == null) {
+            ctx.status(404).result("Avatar no encontrado");
+            return;
+        }
+
+        String etag = "\"" + hash + "\"";
+        ctx.header("ETag", etag);
+        ctx.header("Cache-Control", CACHE_CONTROL);
+
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+            ctx.status(304);
+            return;
+        }
+
+        ctx.contentType(AvatarServicios.obtenerTipo(hash));
+        // Aunque se abra directamente, el navegador no debe interpretarlo como otra cosa ni ejecutar nada
+        ctx.header("X-Content-Type-Options", "nosniff");
+        ctx.header("Content-Security-Policy", "sandbox");
+        enviarArchivo(ctx, archivo);
+    }
+
+    /**
+     * Envía el archivo sin copiarlo al heap: se mapea en memoria y Jetty lo escribe
+     * directamente al socket. Se escribe en la respuesta del servlet (no con ctx.result)
+     * para que Javalin no intente comprimir una imagen ya comprimida.
+     */
+    private static void enviarArchivo(Context ctx, Path archivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            ctx.res().setContentLengthLong(tamano);
+
+            ServletOutputStream salida = ctx.res().getOutputStream();
+            if (salida instanceof HttpOutput) {
+                MappedByteBuffer contenido = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+                ((HttpOutput) salida).sendContent(contenido);
+            } else {
+                Files.copy(archivo, salida);
+            }
+        }
+    }
+}
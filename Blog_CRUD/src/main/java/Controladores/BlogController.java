@@ -1,13 +1,21 @@
 package Controladores;
 
+import app.java.CachePaginas;
 import app.java.DatabaseUtil;
 import app.java.InputConstraints;
 import app.java.InputSanitizer;
 import io.javalin.http.Context;
 import modelos.Articulo;
+import modelos.ArticuloResumen;
 import modelos.Etiqueta;
 import modelos.User;
+import modelos.UsuarioSesion;
+import servicios.AgregadoEtiquetas;
 import servicios.ArticuloServicios;
+import servicios.ArticulosRelacionados;
+import servicios.BusquedaServicios;
+import servicios.EtiquetaServicios;
+import servicios.RankingTendencias;
 
 import javax.persistence.EntityManager;
 import java.util.*;
@@ -15,7 +23,7 @@ import java.util.*;
 public class BlogController {
 
     public static void mostrarFormularioCrear(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null || !usuario.isAutor()) {
             ctx.redirect("/login");
             return;
@@ -24,7 +32,7 @@ public class BlogController {
     }
 
     public static void crearArticulo(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null || !usuario.isAutor()) {
             ctx.redirect("/login");
             return;
@@ -55,7 +63,8 @@ public class BlogController {
             Articulo articulo = new Articulo();
             articulo.setTitulo(titulo.trim());
             articulo.setCuerpo(cuerpo.trim());
-            articulo.setAutor(usuario);
+            // Referencia al autor sin cargar la entidad completa: la sesión solo guarda su id
+            articulo.setAutor(em.getReference(User.class, usuario.getId()));
             articulo.setFecha(new Date());
 
             if (etiquetasStr != null && !etiquetasStr.isEmpty()) {
@@ -66,6 +75,10 @@ public class BlogController {
 
             em.persist(articulo);
             em.getTransaction().commit();
+            AgregadoEtiquetas.articuloCreado(articulo.getEtiquetas());
+            CachePaginas.invalidar(CachePaginas.FEED);
+            BusquedaServicios.marcarCambio(articulo.getId());
+            ArticulosRelacionados.marcarCambio(articulo.getId());
 
             ctx.redirect("/mis-articulos");
         } catch (Exception e) {
@@ -76,37 +89,27 @@ public class BlogController {
         }
     }
 
+    // Todas las etiquetas del artículo se resuelven juntas (ver EtiquetaServicios.obtenerOCrear)
     private static Set<Etiqueta> procesarEtiquetas(EntityManager em, String etiquetasStr) {
-        Set<Etiqueta> etiquetas = new HashSet<>();
+        List<String> nombres = new ArrayList<>();
         for (String nombre : etiquetasStr.split(",")) {
             nombre = nombre.trim();
             if (!nombre.isEmpty()) {
                 // sanitize tag
-                nombre = InputSanitizer.stripTags(nombre);
-                if (InputConstraints.exceeds(nombre, InputConstraints.ETIQUETA_MAX)) {
+                nombre = InputSanitizer.stripTags(nombre).trim();
+                if (nombre.isEmpty() || InputConstraints.exceeds(nombre, InputConstraints.ETIQUETA_MAX)) {
                     // skip overly long tags
                     continue;
                 }
-                String finalNombre = nombre;
-                Etiqueta etiqueta = em.createQuery(
-                                "SELECT e FROM Etiqueta e WHERE e.etiqueta = :nombre", Etiqueta.class)
-                        .setParameter("nombre", nombre)
-                        .getResultStream()
-                        .findFirst()
-                        .orElseGet(() -> {
-                            Etiqueta nueva = new Etiqueta();
-                            nueva.setEtiqueta(finalNombre);
-                            em.persist(nueva);
-                            return nueva;
-                        });
-                etiquetas.add(etiqueta);
+                nombres.add(nombre);
+                if (nombres.size() == InputConstraints.ETIQUETAS_POR_ARTICULO_MAX) break;
             }
         }
-        return etiquetas;
+        return new LinkedHashSet<>(EtiquetaServicios.obtenerOCrear(em, nombres).values());
     }
 
     public static void eliminarArticulo(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) {
             ctx.redirect("/login");
             return;
@@ -114,6 +117,7 @@ public class BlogController {
 
         long id = Long.parseLong(ctx.pathParam("id"));
 
+        List<Etiqueta> etiquetas = null;
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
             em.getTransaction().begin();
@@ -123,7 +127,7 @@ public class BlogController {
                     (usuario.isAdmin() || articulo.getAutor().getId().equals(usuario.getId()))) {
 
                 // Eliminar relaciones con etiquetas primero
-                List<Etiqueta> etiquetas = new ArrayList<>(articulo.getEtiquetas());
+                etiquetas = new ArrayList<>(articulo.getEtiquetas());
                 for (Etiqueta etiqueta : etiquetas) {
                     articulo.removeEtiqueta(etiqueta);
                     if (etiqueta.getArticulos().isEmpty()) {
@@ -135,6 +139,11 @@ public class BlogController {
             }
 
             em.getTransaction().commit();
+            if (etiquetas != null) AgregadoEtiquetas.articuloEliminado(etiquetas);
+            CachePaginas.invalidar(CachePaginas.FEED, CachePaginas.etiquetaArticulo(id));
+            BusquedaServicios.marcarCambio(id);
+            ArticulosRelacionados.marcarCambio(id);
+            RankingTendencias.articuloEliminado(id);
             ctx.redirect("/mis-articulos");
         } finally {
             em.close();
@@ -142,7 +151,7 @@ public class BlogController {
     }
 
     public static void actualizarArticulo(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) {
             ctx.redirect("/login");
             return;
@@ -177,10 +186,14 @@ public class BlogController {
 
                 articulo.setTitulo(titulo.trim());
                 articulo.setCuerpo(cuerpo.trim());
+                articulo.setFechaModificacion(new Date());
                 em.merge(articulo);
             }
 
             em.getTransaction().commit();
+            CachePaginas.invalidar(CachePaginas.FEED, CachePaginas.etiquetaArticulo(id));
+            BusquedaServicios.marcarCambio(id);
+            ArticulosRelacionados.marcarCambio(id);
             ctx.redirect("/mis-articulos");
         } catch (Exception e) {
             if (em.getTransaction().isActive()) em.getTransaction().rollback();
@@ -191,7 +204,7 @@ public class BlogController {
     }
 
     public static void mostrarFormularioEditar(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) {
             ctx.redirect("/login");
             return;
@@ -218,18 +231,46 @@ public class BlogController {
         }
     }
 
+    // Título y cuerpo para el modal de edición de mis-articulos (el listado no carga el cuerpo)
+    public static void obtenerContenido(Context ctx) {
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
+        if (usuario == null) {
+            ctx.status(401).json(Map.of("error", "No autenticado"));
+            return;
+        }
+
+        long id;
+        try {
+            id = Long.parseLong(ctx.pathParam("id"));
+        } catch (NumberFormatException e) {
+            ctx.status(400).json(Map.of("error", "ID inválido"));
+            return;
+        }
+
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            Articulo articulo = em.find(Articulo.class, id);
+            if (articulo == null) {
+                ctx.status(404).json(Map.of("error", "Artículo no encontrado"));
+                return;
+            }
+            if (!usuario.isAdmin() && !articulo.getAutor().getId().equals(usuario.getId())) {
+                ctx.status(403).json(Map.of("error", "No autorizado"));
+                return;
+            }
+            ctx.json(Map.of("id", articulo.getId(), "titulo", articulo.getTitulo(), "contenido", articulo.getCuerpo()));
+        } finally {
+            em.close();
+        }
+    }
+
     // Helper to render mis-articulos with articles + usuario + error message
-    private static void renderMisArticulosPage(Context ctx, User usuario, String errorMessage) {
+    private static void renderMisArticulosPage(Context ctx, UsuarioSesion usuario, String errorMessage) {
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
-            List<Articulo> articulos;
-            if (usuario != null && usuario.isAdmin()) {
-                articulos = em.createQuery("SELECT a FROM Articulo a ORDER BY a.fecha DESC", Articulo.class)
-                        .getResultList();
-            } else if (usuario != null) {
-                articulos = em.createQuery("SELECT a FROM Articulo a WHERE a.autor.id = :id ORDER BY a.fecha DESC", Articulo.class)
-                        .setParameter("id", usuario.getId())
-                        .getResultList();
+            List<ArticuloResumen> articulos;
+            if (usuario != null) {
+                articulos = ArticuloServicios.listarResumenes(em, usuario.isAdmin() ? null : usuario.getId());
             } else {
                 articulos = List.of();
             }
@@ -0,0 +1,95 @@
+package Controladores;
+
+import app.java.InputConstraints;
+import app.java.InputSanitizer;
+import io.javalin.http.Context;
+import modelos.ResultadoBusqueda;
+import modelos.UsuarioSesion;
+import servicios.BusquedaServicios;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BusquedaController {
+
+    /**
+     * GET /buscar?q=...&pagina=N
+     * Página de resultados; sin q muestra solo el formulario.
+     */
+    public static void buscar(Context ctx) {
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
+        String consulta = leerConsulta(ctx);
+
+        Map<String, Object> model = new HashMap<>();
+        model.put("usuario", usuario);
+        model.put("consulta", consulta);
+        if (!consulta.isEmpty()) {
+            BusquedaServicios.Resultados resultados = BusquedaServicios.buscar(consulta, leerPagina(ctx));
+            model.put("resultados", resultados.getResultados());
+            model.put("total", resultados.getTotal());
+            model.put("paginaActual", resultados.getPagina());
+            model.put("totalPaginas", resultados.getTotalPaginas());
+            model.put("milisegundos", String.format("%.2f", resultados.getMicros() / 1000.0));
+        } else {
+            model.put("resultados", List.of());
+            model.put("total", 0);
+            model.put("paginaActual", 1);
+            model.put("totalPaginas", 0);
+        }
+        ctx.render("buscar.html", model);
+    }
+
+    /**
+     * GET /api/buscar?q=...&pagina=N
+     * Los mismos resultados en JSON; los textos ya vienen codificados para HTML.
+     */
+    public static void buscarApi(Context ctx) {
+        String consulta = leerConsulta(ctx);
+        if (consulta.isEmpty()) {
+            ctx.status(400).json(Map.of("error", "Falta el parámetro q"));
+            return;
+        }
+
+        BusquedaServicios.Resultados resultados = BusquedaServicios.buscar(consulta, leerPagina(ctx));
+        List<Map<String, Object>> articulos = new ArrayList<>();
+        for (ResultadoBusqueda resultado : resultados.getResultados()) {
+            Map<String, Object> dto = new LinkedHashMap<>();
+            dto.put("id", resultado.getId());
+            dto.put("titulo", InputSanitizer.encodeForHtml(resultado.getTitulo()));
+            // El extracto ya se guarda codificado para HTML
+            dto.put("extracto", resultado.getExtracto());
+            dto.put("autor", InputSanitizer.encodeForHtml(resultado.getAutorNombre()));
+            dto.put("fecha", resultado.getFecha());
+            dto.put("puntaje", resultado.getPuntaje());
+            articulos.add(dto);
+        }
+
+        Map<String, Object> respuesta = new LinkedHashMap<>();
+        respuesta.put("consulta", consulta);
+        respuesta.put("total", resultados.getTotal());
+        respuesta.put("paginaActual", resultados.getPagina());
+        respuesta.put("totalPaginas", resultados.getTotalPaginas());
+        respuesta.put("microsegundos", resultados.getMicros());
+        respuesta.put("resultados", articulos);
+        ctx.json(respuesta);
+    }
+
+    private static String leerConsulta(Context ctx) {
+        String consulta = ctx.queryParam("q");
+        if (consulta == null) return "";
+        consulta = consulta.trim();
+        return consulta.length() > InputConstraints.BUSQUEDA_MAX
+                ? consulta.substring(0, InputConstraints.BUSQUEDA_MAX) : consulta;
+    }
+
+    private static int leerPagina(Context ctx) {
+        try {
+            return ctx.queryParamAsClass("pagina", Integer.class).getOrDefault(1);
+        } catch (Exception e) {
+            return 1;
+        }
+    }
+}
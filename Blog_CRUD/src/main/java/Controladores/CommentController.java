@@ -1,23 +1,34 @@
 package Controladores;
 
+import app.java.CachePaginas;
 import app.java.DatabaseUtil;
 import app.java.InputConstraints;
+import app.java.InputSanitizer;
+import app.java.ValidacionCondicional;
 import io.javalin.http.Context;
 import modelos.Articulo;
 import modelos.Comentario;
+import modelos.ComentarioResumen;
 import modelos.User;
+import modelos.UsuarioSesion;
+import servicios.ArticuloServicios;
+import servicios.BusquedaServicios;
+import servicios.ComentarioServicios;
+import servicios.RankingTendencias;
 
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 public class CommentController {
 
     public static void crearComentario(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) {
             ctx.redirect("/login");
             return;
@@ -43,9 +54,17 @@ public class CommentController {
             EntityManager em = DatabaseUtil.getEntityManager();
             try {
                 Articulo articulo = em.find(Articulo.class, articuloId);
+                if (articulo == null) {
+                    ctx.status(404).result("Artículo no encontrado");
+                    return;
+                }
+                ComentarioServicios.Pagina comentarios = ComentarioServicios.obtenerPagina(
+                        em, articuloId, 0, ComentarioServicios.COMENTARIOS_POR_PAGINA);
                 Map<String,Object> model = new HashMap<>();
                 model.put("articulo", articulo);
                 model.put("usuario", usuario);
+                model.put("comentarios", comentarios.getComentarios());
+                model.put("siguienteCursorComentarios", comentarios.getSiguienteCursor());
                 model.put("error", "El comentario supera el máximo de " + InputConstraints.COMENTARIO_MAX + " caracteres");
                 ctx.render("articulo.html", model);
             } finally {
@@ -59,14 +78,24 @@ public class CommentController {
             em.getTransaction().begin();
 
             Articulo articulo = em.find(Articulo.class, articuloId);
+            if (articulo == null) {
+                em.getTransaction().rollback();
+                ctx.status(404).result("Artículo no encontrado");
+                return;
+            }
 
             Comentario comentario = new Comentario();
             comentario.setComentario(comentarioTexto.trim());
-            comentario.setAutor(usuario);
+            comentario.setAutor(em.getReference(User.class, usuario.getId()));
             comentario.setArticulo(articulo);
+            articulo.setFechaModificacion(new Date());
 
             em.persist(comentario);
+            ArticuloServicios.sumarComentarios(em, articuloId, 1);
             em.getTransaction().commit();
+            CachePaginas.invalidar(CachePaginas.etiquetaArticulo(articuloId));
+            BusquedaServicios.marcarCambio(articuloId);
+            RankingTendencias.comentario(articuloId);
 
             ctx.redirect("/articulo/" + articuloId);
         } catch (Exception e) {
@@ -77,10 +106,11 @@ public class CommentController {
     }
 
     public static void eliminarComentario(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) return;
 
         long comentarioId = Long.parseLong(ctx.pathParam("id"));
+        Long articuloId = null;
 
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
@@ -90,40 +120,82 @@ public class CommentController {
             // Comparar utilizando el id del usuario
             if (comentario != null &&
                     (usuario.isAdmin() || comentario.getAutor().getId().equals(usuario.getId()))) {
+                articuloId = comentario.getArticulo().getId();
+                comentario.getArticulo().setFechaModificacion(new Date());
                 em.remove(comentario);
+                ArticuloServicios.sumarComentarios(em, articuloId, -1);
             }
 
             em.getTransaction().commit();
+            if (articuloId != null) {
+                CachePaginas.invalidar(CachePaginas.etiquetaArticulo(articuloId));
+                BusquedaServicios.marcarCambio(articuloId);
+            }
             ctx.redirect("/mis-articulos");
         } finally {
             em.close();
         }
     }
 
+    /**
+     * GET /articulo/{articuloId}/comentarios?despues=ID&limite=N
+     * Una página de comentarios en JSON ("Cargar más" de la página del artículo y modal de
+     * mis-articulos). siguienteCursor es el valor de despues para la página siguiente, o null.
+     * El autor y el texto ya vienen codificados para HTML.
+     */
     public static void listarComentarios(Context ctx) {
+        long articuloId;
+        long despues;
         try {
-            long articuloId = Long.parseLong(ctx.pathParam("articuloId"));
+            articuloId = Long.parseLong(ctx.pathParam("articuloId"));
+            String cursor = ctx.queryParam("despues");
+            despues = cursor == null || cursor.isEmpty() ? 0 : Long.parseLong(cursor);
+        } catch (NumberFormatException e) {
+            ctx.status(400).json(Map.of("error", "ID inválido"));
+            return;
+        }
+        int limite = leerLimite(ctx);
 
-            EntityManager em = DatabaseUtil.getEntityManager();
-            List<Comentario> comentarios = em.createQuery(
-                            "SELECT c FROM Comentario c WHERE c.articulo.id = :articuloId", Comentario.class)
-                    .setParameter("articuloId", articuloId)
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            List<Date> modificado = em.createQuery(
+                            "SELECT a.fechaModificacion FROM Articulo a WHERE a.id = :id", Date.class)
+                    .setParameter("id", articuloId)
                     .getResultList();
+            if (modificado.isEmpty()) {
+                ctx.status(404).json(Map.of("error", "Artículo no encontrado"));
+                return;
+            }
+            ValidacionCondicional.etiquetarArticulo(ctx, articuloId, modificado.get(0));
+
+            ComentarioServicios.Pagina pagina = ComentarioServicios.obtenerPagina(em, articuloId, despues, limite);
+
+            List<Map<String, Object>> comentarios = new ArrayList<>();
+            for (ComentarioResumen c : pagina.getComentarios()) {
+                Map<String, Object> comMap = new LinkedHashMap<>();
+                comMap.put("id", c.getId());
+                comMap.put("autor", InputSanitizer.encodeForHtml(c.getAutorNombre()));
+                comMap.put("texto", InputSanitizer.encodeForHtml(c.getComentario()));
+                comentarios.add(comMap);
+            }
 
             Map<String, Object> response = new HashMap<>();
             response.put("articuloId", articuloId);
-            response.put("comentarios", comentarios.stream()
-                    .map(c -> {
-                        Map<String, Object> comMap = new HashMap<>();
-                        comMap.put("id", c.getId());
-                        comMap.put("autor", c.getAutor().getNombre());
-                        comMap.put("texto", c.getComentario());
-                        return comMap;
-                    }).collect(Collectors.toList()));
-
+            response.put("comentarios", comentarios);
+            response.put("siguienteCursor", pagina.getSiguienteCursor());
             ctx.json(response);
-        } catch (NumberFormatException e) {
-            ctx.status(400).json(Map.of("error", "ID inválido"));
+        } finally {
+            em.close();
+        }
+    }
+
+    private static int leerLimite(Context ctx) {
+        try {
+            int limite = ctx.queryParamAsClass("limite", Integer.class)
+                    .getOrDefault(ComentarioServicios.COMENTARIOS_POR_PAGINA);
+            return Math.max(1, Math.min(ComentarioServicios.COMENTARIOS_POR_PAGINA_MAX, limite));
+        } catch (Exception e) {
+            return ComentarioServicios.COMENTARIOS_POR_PAGINA;
         }
     }
 }
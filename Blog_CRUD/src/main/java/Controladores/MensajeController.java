@@ -2,9 +2,13 @@ package Controladores;
 
 import app.java.DatabaseUtil;
 import app.java.InputSanitizer;
+import app.java.ValidacionCondicional;
 import io.javalin.http.Context;
 import modelos.Mensaje;
 import modelos.User;
+import modelos.UsuarioSesion;
+import servicios.ChatRouter;
+import servicios.ChatServicios;
 
 import javax.persistence.EntityManager;
 import java.util.Date;
@@ -15,48 +19,36 @@ import java.util.stream.Collectors;
 
 public class MensajeController {
 
+    // Mensajes que se cargan al abrir el chat; lo demás llega por /ws/chat
+    private static final int MENSAJES_INICIALES = 100;
+
     // Obtener mensajes: si el usuario no está autenticado se muestran todos los mensajes,
-    // y si está autenticado se filtra según el rol (admin o autor ven todos, demás solo sus mensajes)
+    // y si está autenticado se filtra según el rol (admin o autor ven todos, demás solo sus mensajes).
+    // Sin parámetros devuelve los últimos MENSAJES_INICIALES; con ?sinceId=N solo los posteriores a N
+    // (por páginas: mientras "hayMas" sea true se vuelve a pedir desde "ultimoId").
     public static void obtenerMensajes(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
-        EntityManager em = DatabaseUtil.getEntityManager();
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         try {
-            List<Mensaje> mensajes;
-            if (usuario == null) {
-                // Usuario anónimo: mostrar todos los mensajes
-                mensajes = em.createQuery("SELECT m FROM Mensaje m ORDER BY m.fecha DESC", Mensaje.class)
-                        .getResultList();
-            } else if (usuario.isAdmin() || usuario.isAutor()) {
-                mensajes = em.createQuery("SELECT m FROM Mensaje m ORDER BY m.fecha DESC", Mensaje.class)
-                        .getResultList();
-            } else {
-                mensajes = em.createQuery("SELECT m FROM Mensaje m WHERE m.emisor = :usuario OR m.receptor = :usuario ORDER BY m.fecha DESC", Mensaje.class)
-                        .setParameter("usuario", usuario)
-                        .getResultList();
-            }
-
-            List<Map<String, Object>> mensajesMap = mensajes.stream().map(m -> {
-                Map<String, Object> mensajeMap = new HashMap<>();
-                mensajeMap.put("id", m.getId());
-                // Si el emisor no es nulo se utiliza su username o nombre; de lo contrario, se usa el campo emisorAnonimo.
-                String autor;
-                if (m.getEmisor() != null) {
-                    autor = m.getEmisor().getUsername() != null ? m.getEmisor().getUsername() : m.getEmisor().getNombre();
-                } else {
-                    autor = m.getEmisorAnonimo();
+            String sinceId = ctx.queryParam("sinceId");
+            if (sinceId != null) {
+                long desdeId;
+                try {
+                    desdeId = Long.parseLong(sinceId);
+                } catch (NumberFormatException e) {
+                    ctx.status(400).json(Map.of("error", "sinceId inválido"));
+                    return;
                 }
-                // Encode outputs to avoid XSS when rendered as HTML on client
-                mensajeMap.put("autor", InputSanitizer.encodeForHtml(autor));
-                mensajeMap.put("contenido", InputSanitizer.encodeForHtml(m.getContenido()));
-                mensajeMap.put("fecha", m.getFecha());
-                return mensajeMap;
-            }).collect(Collectors.toList());
+                ctx.json(ChatServicios.paginaHistorial(usuario, desdeId, ChatServicios.HISTORIAL_LIMITE_MAXIMO));
+                return;
+            }
 
-            ctx.json(Map.of("mensajes", mensajesMap));
+            List<Map<String, Object>> mensajes = ChatServicios.ultimosMensajes(usuario, MENSAJES_INICIALES);
+            Map<String, Object> respuesta = new HashMap<>();
+            respuesta.put("mensajes", mensajes);
+            respuesta.put("ultimoId", mensajes.isEmpty() ? 0L : mensajes.get(mensajes.size() - 1).get("id"));
+            ctx.json(respuesta);
         } catch (Exception e) {
             ctx.status(500).json(Map.of("error", "Error al obtener los mensajes"));
-        } finally {
-            em.close();
         }
     }
 
@@ -75,7 +67,8 @@ public class MensajeController {
 
             em.getTransaction().begin();
 
-            User usuario = ctx.sessionAttribute("usuario");
+            UsuarioSesion usuario = ctx.sessionAttribute("usuario");
+            Mensaje mensaje = new Mensaje();
             if (usuario == null) {
                 // Si no hay usuario en sesión, se usa el parámetro "nombre" o se asigna "Anónimo"
                 String nombre = ctx.formParam("nombre");
@@ -84,14 +77,10 @@ public class MensajeController {
                 }
                 // sanitize anonymous name
                 nombre = InputSanitizer.stripTags(nombre).trim();
-
-                usuario = new User();
-                usuario.setNombre(nombre);
-                // Nota: Este usuario es temporal y no se persiste en la BD
+                mensaje.setEmisorAnonimo(nombre);
+            } else {
+                mensaje.setEmisor(em.getReference(User.class, usuario.getId()));
             }
-
-            Mensaje mensaje = new Mensaje();
-            mensaje.setEmisor(usuario);
             mensaje.setContenido(contenido);
             mensaje.setFecha(new Date(System.currentTimeMillis()));
 
@@ -106,6 +95,12 @@ public class MensajeController {
             em.persist(mensaje);
             em.getTransaction().commit();
 
+            ValidacionCondicional.cambioMensajes();
+
+            String autor = usuario != null ? usuario.getUsername() : mensaje.getEmisorAnonimo();
+            ChatRouter.publicar(ChatServicios.frameMensaje(mensaje.getId(), mensaje.getContenido(), mensaje.getFecha(), autor, null),
+                    usuario != null ? usuario.getId() : null, null);
+
             ctx.json(Map.of("mensaje", "Mensaje enviado correctamente"));
         } catch (Exception e) {
             if (em.getTransaction().isActive()) {
@@ -119,7 +114,7 @@ public class MensajeController {
 
     // Eliminar mensaje: solo se permite si el usuario está autenticado y es el emisor o es admin
     public static void eliminarMensaje(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) {
             ctx.status(401).json(Map.of("error", "Usuario no autenticado"));
             return;
@@ -149,6 +144,8 @@ public class MensajeController {
 
             em.remove(mensaje);
             em.getTransaction().commit();
+
+            ValidacionCondicional.cambioMensajes();
             ctx.json(Map.of("mensaje", "Mensaje eliminado correctamente"));
         } catch (Exception e) {
             if (em.getTransaction().isActive()) {
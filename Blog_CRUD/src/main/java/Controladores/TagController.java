@@ -1,13 +1,21 @@
 package Controladores;
 
+import app.java.CachePaginas;
 import app.java.DatabaseUtil;
 import app.java.InputConstraints;
+import app.java.ValidacionCondicional;
 import io.javalin.http.Context;
 import modelos.Articulo;
 import modelos.Etiqueta;
-import modelos.User;
+import modelos.UsuarioSesion;
+import servicios.AgregadoEtiquetas;
+import servicios.ArticuloServicios;
+import servicios.ArticulosRelacionados;
+import servicios.BusquedaServicios;
+import servicios.EtiquetaServicios;
 
 import javax.persistence.EntityManager;
+import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 
@@ -20,6 +28,7 @@ public class TagController {
         Articulo articulo = em.find(Articulo.class, articuloId);
 
         if (articulo != null) {
+            ValidacionCondicional.etiquetarArticulo(ctx, articuloId, articulo.getFechaModificacion());
             ctx.json(articulo.getEtiquetas());
         } else {
             ctx.status(404);
@@ -27,7 +36,7 @@ public class TagController {
     }
 
     public static void agregarEtiqueta(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) return;
 
         long articuloId = Long.parseLong(Objects.requireNonNull(ctx.formParam("articuloId")));
@@ -44,13 +53,22 @@ public class TagController {
             em.getTransaction().begin();
 
             Articulo articulo = em.find(Articulo.class, articuloId);
-            Etiqueta etiqueta = obtenerOCrearEtiqueta(em, nombre);
+            Etiqueta etiqueta = EtiquetaServicios.obtenerOCrear(em, nombre);
 
             // Use addEtiqueta instead of directly adding to the list
-            articulo.addEtiqueta(etiqueta);
+            boolean agregada = !articulo.getEtiquetas().contains(etiqueta);
+            if (agregada) {
+                articulo.addEtiqueta(etiqueta);
+                ArticuloServicios.sumarEtiquetas(em, articuloId, 1);
+            }
+            articulo.setFechaModificacion(new Date());
             em.merge(articulo);
 
             em.getTransaction().commit();
+            if (agregada) AgregadoEtiquetas.etiquetaAgregada(etiqueta);
+            CachePaginas.invalidar(CachePaginas.FEED, CachePaginas.etiquetaArticulo(articuloId));
+            BusquedaServicios.marcarCambio(articuloId);
+            ArticulosRelacionados.marcarCambio(articuloId);
             ctx.status(201).result("Etiqueta agregada");
         } catch (Exception e) {
             if (em.getTransaction().isActive()) em.getTransaction().rollback();
@@ -60,23 +78,8 @@ public class TagController {
         }
     }
 
-    private static Etiqueta obtenerOCrearEtiqueta(EntityManager em, String nombre) {
-        List<Etiqueta> resultados = em.createQuery(
-                        "SELECT e FROM Etiqueta e WHERE e.etiqueta = :nombre", Etiqueta.class)
-                .setParameter("nombre", nombre)
-                .getResultList();
-
-        if (resultados.isEmpty()) {
-            Etiqueta nueva = new Etiqueta();
-            nueva.setEtiqueta(nombre);
-            em.persist(nueva);
-            return nueva;
-        }
-        return resultados.get(0);
-    }
-
     public static void eliminarEtiqueta(Context ctx) {
-        User usuario = ctx.sessionAttribute("usuario");
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
         if (usuario == null) return;
 
         long articuloId = Long.parseLong(Objects.requireNonNull(ctx.formParam("articuloId")));
@@ -88,9 +91,12 @@ public class TagController {
 
             Articulo articulo = em.find(Articulo.class, articuloId);
             Etiqueta etiqueta = em.find(Etiqueta.class, etiquetaId);
+            boolean quitada = articulo != null && etiqueta != null && articulo.getEtiquetas().contains(etiqueta);
 
-            if (articulo != null && etiqueta != null) {
+            if (quitada) {
                 articulo.removeEtiqueta(etiqueta);
+                ArticuloServicios.sumarEtiquetas(em, articuloId, -1);
+                articulo.setFechaModificacion(new Date());
 
                 // Eliminar etiqueta si no tiene más artículos
                 if (etiqueta.getArticulos().isEmpty()) {
@@ -101,6 +107,10 @@ public class TagController {
             }
 
             em.getTransaction().commit();
+            if (quitada) AgregadoEtiquetas.etiquetaQuitada(etiquetaId);
+            CachePaginas.invalidar(CachePaginas.FEED, CachePaginas.etiquetaArticulo(articuloId));
+            BusquedaServicios.marcarCambio(articuloId);
+            ArticulosRelacionados.marcarCambio(articuloId);
             ctx.redirect("/mis-articulos");
         } finally {
             em.close();
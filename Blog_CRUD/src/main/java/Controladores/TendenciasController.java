@@ -0,0 +1,57 @@
+package Controladores;
+
+import app.java.InputSanitizer;
+import io.javalin.http.Context;
+import modelos.ArticuloTendencia;
+import modelos.UsuarioSesion;
+import servicios.RankingTendencias;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TendenciasController {
+
+    private static final int LIMITE_DEFECTO = 20;
+    private static final int LIMITE_MAXIMO = 100;
+
+    /**
+     * GET /tendencias
+     * Los artículos con más vistas y comentarios recientes.
+     */
+    public static void mostrar(Context ctx) {
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
+        Map<String, Object> model = new HashMap<>();
+        model.put("usuario", usuario);
+        model.put("tendencias", RankingTendencias.tendencias(LIMITE_DEFECTO));
+        ctx.render("tendencias.html", model);
+    }
+
+    /**
+     * GET /api/tendencias?limite=N
+     * La misma lista en JSON (limite entre 1 y 100, por defecto 20); el título ya viene
+     * codificado para HTML.
+     */
+    public static void tendenciasApi(Context ctx) {
+        List<Map<String, Object>> articulos = new ArrayList<>();
+        for (ArticuloTendencia tendencia : RankingTendencias.tendencias(leerLimite(ctx))) {
+            Map<String, Object> dto = new LinkedHashMap<>();
+            dto.put("id", tendencia.getId());
+            dto.put("titulo", InputSanitizer.encodeForHtml(tendencia.getTitulo()));
+            dto.put("puntaje", tendencia.getPuntaje());
+            articulos.add(dto);
+        }
+        ctx.json(Map.of("articulos", articulos));
+    }
+
+    private static int leerLimite(Context ctx) {
+        try {
+            int limite = ctx.queryParamAsClass("limite", Integer.class).getOrDefault(LIMITE_DEFECTO);
+            return Math.max(1, Math.min(LIMITE_MAXIMO, limite));
+        } catch (Exception e) {
+            return LIMITE_DEFECTO;
+        }
+    }
+}
@@ -2,9 +2,25 @@ package app.java;
 
 import Controladores.*;
 import modelos.Articulo;
-import modelos.Etiqueta;
+import modelos.ArticuloResumen;
+import modelos.ArticuloVistas;
+import modelos.EtiquetaResumen;
 import modelos.Mensaje;
 import modelos.User;
+import modelos.UsuarioSesion;
+import servicios.ArticuloServicios;
+import servicios.ArticulosRelacionados;
+import servicios.ComentarioServicios;
+import servicios.ContadorVistas;
+import servicios.RankingTendencias;
+import servicios.AgregadoEtiquetas;
+import servicios.AvatarServicios;
+import servicios.BusquedaServicios;
+import servicios.ChatRouter;
+import servicios.ChatServicios;
+import servicios.FeedServicios;
+import servicios.LoginAttemptService;
+import servicios.UsuarioServicios;
 import io.javalin.Javalin;
 import io.javalin.json.JavalinJackson;
 import io.javalin.rendering.template.JavalinThymeleaf;
@@ -16,23 +32,28 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.hibernate5.Hibernate5Module;
 
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 import java.sql.*;
 import java.time.Instant;
 import java.util.*;
 import java.util.Date;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import app.java.InputSanitizer;
 
 public class App {
 
-    // Conjunto para almacenar las sesiones activas del WebSocket
-    private static final Set<WsContext> wsSessions = ConcurrentHashMap.newKeySet();
+    // Serializa los frames del chat (ObjectMapper es seguro entre hilos una vez configurado)
+    private static final ObjectMapper mapperChat = new ObjectMapper();
 
     public static void main(String[] args) {
         inicializarBaseDeDatos();
+        ArticuloServicios.programarReparacionContadores();
+        ArticuloServicios.completarExtractos();
+        AgregadoEtiquetas.programarReconstruccion();
+        AvatarServicios.migrarFotosBase64();
+        BusquedaServicios.iniciar();
+        ArticulosRelacionados.iniciar();
+        ContadorVistas.iniciar();
         TemplateEngine templateEngine = configurarThymeleaf();
         Javalin app = iniciarJavalin(templateEngine);
         configurarRutas(app); // Se incluyen todas las rutas, incluidas las de API
@@ -55,6 +76,9 @@ public class App {
                 articulo.setFecha(new Date());
                 em.persist(articulo);
             }
+            // Artículos creados antes de existir fechaModificacion
+            em.createQuery("UPDATE Articulo a SET a.fechaModificacion = a.fecha WHERE a.fechaModificacion IS NULL")
+                    .executeUpdate();
             em.getTransaction().commit();
         } catch (Exception e) {
             if (em.getTransaction().isActive()) em.getTransaction().rollback();
@@ -97,6 +121,8 @@ public class App {
         try {
             javalin.start(port);
             System.out.println("Javalin started on port " + port);
+            // Las respuestas que esperan a bcrypt se reanudan en los hilos de Jetty
+            PasswordUtil.usarEjecutorRespuestas(javalin.jettyServer().threadPool());
         } catch (Exception e) {
             System.err.println("Failed to bind to port " + port + ": " + e.getMessage());
             System.err.println("On Windows you can check which process uses the port with:");
@@ -134,7 +160,9 @@ public class App {
     }
 
     private static void configurarRutas(Javalin app) {
+        RateLimiter.instalar(app); // Primero: rechaza con 429 antes de tocar la sesión o la BD
         configurarMiddleware(app);
+        ValidacionCondicional.instalar(app); // 304 antes de consultar o renderizar
         configurarRutasAutenticacion(app);
         configurarRutasPublicas(app);
         configurarRutasPrivadas(app);
@@ -144,6 +172,33 @@ public class App {
 
         // Endpoints para la API de chats
         configurarRutasAPIChats(app);
+        configurarRutasMetricas(app);
+    }
+
+    // Métricas internas en JSON (solo admin): estado del pool de conexiones, etc.
+    private static void configurarRutasMetricas(Javalin app) {
+        app.get("/admin/metricas", ctx -> {
+            UsuarioSesion usuario = ctx.sessionAttribute("usuario");
+            if (usuario == null || !usuario.isAdmin()) {
+                ctx.status(403).json(Map.of("error", "No autorizado"));
+                return;
+            }
+            Map<String, Object> metricas = new LinkedHashMap<>();
+            metricas.put("poolConexiones", DatabaseUtil.getEstadisticasPool());
+            metricas.put("chat", ChatRouter.getEstadisticas());
+            metricas.put("bcrypt", PasswordUtil.getEstadisticas());
+            metricas.put("login", LoginAttemptService.getEstadisticas());
+            metricas.put("rateLimit", RateLimiter.getEstadisticas());
+            metricas.put("cachePaginas", CachePaginas.getEstadisticas());
+            metricas.put("getCondicional", ValidacionCondicional.getEstadisticas());
+            metricas.put("cacheHibernate", DatabaseUtil.getEstadisticasCache());
+            metricas.put("busqueda", BusquedaServicios.getEstadisticas());
+            metricas.put("etiquetas", AgregadoEtiquetas.getEstadisticas());
+            metricas.put("relacionados", ArticulosRelacionados.getEstadisticas());
+            metricas.put("vistas", ContadorVistas.getEstadisticas());
+            metricas.put("tendencias", RankingTendencias.getEstadisticas());
+            ctx.json(metricas);
+        });
     }
 
     private static void configurarRutasAPIChats(Javalin app) {
@@ -200,7 +255,7 @@ public class App {
 
         // Nuevo endpoint para que el admin envíe un mensaje a un usuario específico y se guarde en la BD
         app.post("/api/chats/admin", ctx -> {
-            User admin = ctx.sessionAttribute("usuario");
+            UsuarioSesion admin = ctx.sessionAttribute("usuario");
             if (admin == null || !admin.isAdmin()) {
                 ctx.status(403).result("No autorizado");
                 return;
@@ -225,14 +280,21 @@ public class App {
                 em.getTransaction().begin();
                 Mensaje mensaje = new Mensaje();
                 mensaje.setContenido(contenido);
-                mensaje.setEmisor(admin);
+                mensaje.setEmisor(em.getReference(User.class, admin.getId()));
                 // Se obtiene el usuario receptor por su username
-                User receptor = em.createQuery("SELECT u FROM User u WHERE u.username = :username", User.class)
-                        .setParameter("username", receptorUsername)
-                        .getSingleResult();
+                User receptor = UsuarioServicios.buscarPorUsername(em, receptorUsername);
+                if (receptor == null) {
+                    em.getTransaction().rollback();
+                    ctx.status(404).result("Receptor no encontrado");
+                    return;
+                }
                 mensaje.setReceptor(receptor);
                 em.persist(mensaje);
                 em.getTransaction().commit();
+                ValidacionCondicional.cambioMensajes();
+                ChatRouter.publicar(ChatServicios.frameMensaje(
+                        mensaje.getId(), mensaje.getContenido(), mensaje.getFecha(),
+                        admin.getUsername(), receptor.getUsername()), admin.getId(), receptor.getId());
                 // Return a safe DTO
                 Map<String, Object> resp = new HashMap<>();
                 resp.put("id", mensaje.getId());
@@ -256,10 +318,13 @@ public class App {
             String path = ctx.path();
             if (path.equals("/login") || path.equals("/autenticar") || path.equals("/registro")
                     || path.equals("/") || path.startsWith("/index") || path.startsWith("/articulo/")
-                    || path.startsWith("/static") || path.startsWith("/mensajes/obtener") || path.startsWith("/mensajes/enviar")) {
+                    || path.equals("/buscar") || path.equals("/api/buscar") || path.equals("/api/mas-leidos")
+                    || path.equals("/tendencias") || path.equals("/api/tendencias")
+                    || path.startsWith("/static") || path.startsWith("/avatars/") || path.startsWith("/mensajes/obtener") || path.startsWith("/mensajes/enviar")
+                    || path.equals("/ws/chat")) {
                 return;
             }
-            User usuario = ctx.sessionAttribute("usuario");
+            UsuarioSesion usuario = ctx.sessionAttribute("usuario");
             if (usuario == null) {
                 ctx.redirect("/login");
                 return;
@@ -280,9 +345,10 @@ public class App {
     private static void configurarRutasAutenticacion(Javalin app) {
         app.get("/", ctx -> ctx.redirect("/index"));
         app.get("/login", AuthController::mostrarLogin);
-        app.post("/autenticar", ctx -> {
-            AuthController.login(ctx);
-            User usuario = ctx.sessionAttribute("usuario");
+        app.post("/autenticar", AuthController::login);
+        // login termina de forma asíncrona (bcrypt): el after se ejecuta cuando ya hay sesión
+        app.after("/autenticar", ctx -> {
+            UsuarioSesion usuario = ctx.sessionAttribute("usuario");
             if (usuario != null) {
                 registrarLogin(usuario.getUsername());
             }
@@ -301,73 +367,86 @@ public class App {
     }
 
     private static void configurarRutasPublicas(Javalin app) {
+        app.get("/avatars/{hash}", AvatarController::servirAvatar);
+        app.get("/buscar", BusquedaController::buscar);
+        app.get("/api/buscar", BusquedaController::buscarApi);
+        app.get("/tendencias", TendenciasController::mostrar);
+        app.get("/api/tendencias", TendenciasController::tendenciasApi);
+
+        // "Más leídos esta semana" en JSON: {articulos: [{id, titulo, vistas}]}
+        app.get("/api/mas-leidos", ctx -> {
+            List<Map<String, Object>> articulos = new ArrayList<>();
+            for (ArticuloVistas leido : ContadorVistas.masLeidos()) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("id", leido.getId());
+                item.put("titulo", InputSanitizer.encodeForHtml(leido.getTitulo()));
+                item.put("vistas", leido.getVistas());
+                articulos.add(item);
+            }
+            ctx.json(Map.of("articulos", articulos));
+        });
+
         app.get("/index", ctx -> {
-            User usuario = ctx.sessionAttribute("usuario");
-            EntityManager em = DatabaseUtil.getEntityManager();
+            UsuarioSesion usuario = ctx.sessionAttribute("usuario");
+            // "pagina" solo se usa para mostrar el número; la posición real la da el cursor (fecha, id)
+            String cursor = FeedServicios.normalizarCursor(ctx.queryParam("cursor"));
+            int pagina = cursor == null ? 1 : Math.max(1, ctx.queryParamAsClass("pagina", Integer.class).getOrDefault(1));
+            Long etiquetaId = null;
             try {
-                int pagina = ctx.queryParamAsClass("pagina", Integer.class).getOrDefault(1);
-                Long etiquetaId = null;
-                try {
-                    etiquetaId = ctx.queryParamAsClass("etiquetaId", Long.class).getOrDefault(null);
-                } catch (Exception e) { /* ignorar error parseo */ }
-
-                int articulosPorPagina = 5;
-                int indiceInicial = (pagina - 1) * articulosPorPagina;
+                etiquetaId = ctx.queryParamAsClass("etiquetaId", Long.class).getOrDefault(null);
+            } catch (Exception e) { /* ignorar error parseo */ }
+            boolean ajax = "XMLHttpRequest".equals(ctx.header("X-Requested-With"));
+
+            // Los visitantes anónimos ven todos la misma página: se sirve desde CachePaginas. La
+            // clave usa el cursor ya validado (no el número de página, que decide el cliente) y
+            // solo etiquetas que existen, así parámetros inventados no desalojan páginas reales
+            boolean cacheable = usuario == null
+                    && (etiquetaId == null || AgregadoEtiquetas.contarArticulos(etiquetaId) > 0);
+            String clave = cacheable
+                    ? CachePaginas.clave("index", ajax ? "json" : "html", etiquetaId, cursor) : null;
+            if (CachePaginas.servir(ctx, clave)) return;
+            long generacion = CachePaginas.generacion();
 
-                String articulosQueryStr;
-                String countQueryStr;
-
-                if (etiquetaId != null) {
-                    articulosQueryStr = "SELECT DISTINCT a FROM Articulo a JOIN a.etiquetas e WHERE e.id = :etiquetaId ORDER BY a.fecha DESC";
-                    countQueryStr = "SELECT COUNT(DISTINCT a) FROM Articulo a JOIN a.etiquetas e WHERE e.id = :etiquetaId";
-                } else {
-                    articulosQueryStr = "SELECT a FROM Articulo a ORDER BY a.fecha DESC";
-                    countQueryStr = "SELECT COUNT(a) FROM Articulo a";
-                }
-
-                TypedQuery<Articulo> articulosQuery = em.createQuery(articulosQueryStr, Articulo.class);
-                TypedQuery<Long> countQuery = em.createQuery(countQueryStr, Long.class);
-
-                if (etiquetaId != null) {
-                    articulosQuery.setParameter("etiquetaId", etiquetaId);
-                    countQuery.setParameter("etiquetaId", etiquetaId);
-                }
-
-                List<Articulo> articulos = articulosQuery
-                        .setFirstResult(indiceInicial)
-                        .setMaxResults(articulosPorPagina)
-                        .getResultList();
-
-                Long totalArticulos = countQuery.getSingleResult();
-                int totalPaginas = (int) Math.ceil((double) totalArticulos / articulosPorPagina);
+            EntityManager em = DatabaseUtil.getEntityManager();
+            try {
+                FeedServicios.Pagina resultado = FeedServicios.obtenerPagina(em, etiquetaId, cursor);
+                List<ArticuloResumen> articulos = resultado.getArticulos();
 
-                List<Etiqueta> etiquetas = em.createQuery("SELECT DISTINCT e FROM Etiqueta e ORDER BY e.etiqueta", Etiqueta.class)
-                        .getResultList();
+                long totalArticulos = AgregadoEtiquetas.contarArticulos(etiquetaId);
+                int totalPaginas = (int) Math.ceil((double) totalArticulos / FeedServicios.ARTICULOS_POR_PAGINA);
 
-                if ("XMLHttpRequest".equals(ctx.header("X-Requested-With"))) {
+                if (ajax) {
                     Map<String, Object> ajaxModel = new HashMap<>();
                     ajaxModel.put("articulos", convertArticulosToDTO(articulos));
                     ajaxModel.put("paginaActual", pagina);
                     ajaxModel.put("totalPaginas", totalPaginas);
+                    ajaxModel.put("siguienteCursor", resultado.getSiguienteCursor());
                     ctx.json(ajaxModel);
+                    CachePaginas.guardar(ctx, clave, generacion, CachePaginas.FEED);
                     return;
                 }
 
+                // La barra lateral solo se necesita al renderizar la página completa
+                List<EtiquetaResumen> etiquetas = AgregadoEtiquetas.nube();
+
                 Map<String, Object> model = new HashMap<>();
                 model.put("usuario", usuario);
                 model.put("articulos", articulos);
                 model.put("paginaActual", pagina);
                 model.put("totalPaginas", totalPaginas);
+                model.put("siguienteCursor", resultado.getSiguienteCursor());
                 model.put("etiquetas", etiquetas != null ? etiquetas : List.of());
+                model.put("masLeidos", ContadorVistas.masLeidos());
 
                 ctx.render("index.html", model);
+                CachePaginas.guardar(ctx, clave, generacion, CachePaginas.FEED);
             } finally {
                 em.close();
             }
         });
 
         app.get("/articulo/{id}", ctx -> {
-            User usuario = ctx.sessionAttribute("usuario");
+            UsuarioSesion usuario = ctx.sessionAttribute("usuario");
             long articuloId;
             try {
                 articuloId = Long.parseLong(ctx.pathParam("id"));
@@ -375,6 +454,14 @@ public class App {
                 ctx.status(400).result("ID inválido");
                 return;
             }
+            String clave = usuario == null ? CachePaginas.clave("articulo", articuloId) : null;
+            // La vista se cuenta en memoria (ContadorVistas la vuelca a la base de datos en lotes)
+            if (CachePaginas.servir(ctx, clave)) {
+                ContadorVistas.registrar(articuloId);
+                return;
+            }
+            long generacion = CachePaginas.generacion();
+
             EntityManager em = DatabaseUtil.getEntityManager();
             try {
                 Articulo articulo = em.find(Articulo.class, articuloId);
@@ -382,10 +469,19 @@ public class App {
                     ctx.status(404).result("Artículo no encontrado");
                     return;
                 }
+                ContadorVistas.registrar(articuloId);
+                ValidacionCondicional.etiquetarPaginaArticulo(ctx, articulo);
                 Map<String, Object> model = new HashMap<>();
                 model.put("articulo", articulo);
                 model.put("usuario", usuario);
+                model.put("relacionados", ArticulosRelacionados.relacionados(articuloId));
+                // Solo la primera página de comentarios; el resto se pide con "Cargar más"
+                ComentarioServicios.Pagina comentarios = ComentarioServicios.obtenerPagina(
+                        em, articuloId, 0, ComentarioServicios.COMENTARIOS_POR_PAGINA);
+                model.put("comentarios", comentarios.getComentarios());
+                model.put("siguienteCursorComentarios", comentarios.getSiguienteCursor());
                 ctx.render("articulo.html", model);
+                CachePaginas.guardar(ctx, clave, generacion, CachePaginas.etiquetaArticulo(articuloId));
             } finally {
                 em.close();
             }
@@ -396,7 +492,7 @@ public class App {
     private static void configurarRutasPrivadas(Javalin app) {
         // Muestra la misma lista de usuarios que HAN ENVIADO mensajes en /admin/chats
         app.get("/admin/chats", ctx -> {
-            User usuario = ctx.sessionAttribute("usuario");
+            UsuarioSesion usuario = ctx.sessionAttribute("usuario");
             if (usuario == null || !usuario.isAdmin()) {
                 ctx.redirect("/index");
                 return;
@@ -413,6 +509,9 @@ public class App {
                 Map<String, Object> model = new HashMap<>();
                 model.put("usuario", usuario);
                 model.put("chats", chatsActivos);
+                // Punto de partida del WebSocket: la página ya carga el historial por REST
+                Long ultimoMensajeId = em.createQuery("SELECT MAX(m.id) FROM Mensaje m", Long.class).getSingleResult();
+                model.put("ultimoMensajeId", ultimoMensajeId != null ? ultimoMensajeId : 0L);
                 ctx.render("admin-chats.html", model);
             } finally {
                 em.close();
@@ -433,18 +532,10 @@ public class App {
 
     private static void configurarRutasArticulos(Javalin app) {
         app.get("/mis-articulos", ctx -> {
-            User usuario = ctx.sessionAttribute("usuario");
+            UsuarioSesion usuario = ctx.sessionAttribute("usuario");
             EntityManager em = DatabaseUtil.getEntityManager();
             try {
-                List<Articulo> articulos;
-                if (usuario.isAdmin()) {
-                    articulos = em.createQuery("SELECT a FROM Articulo a ORDER BY a.fecha DESC", Articulo.class)
-                            .getResultList();
-                } else {
-                    articulos = em.createQuery("SELECT a FROM Articulo a WHERE a.autor.id = :id ORDER BY a.fecha DESC", Articulo.class)
-                            .setParameter("id", usuario.getId())
-                            .getResultList();
-                }
+                List<ArticuloResumen> articulos = ArticuloServicios.listarResumenes(em, usuario.isAdmin() ? null : usuario.getId());
                 ctx.render("mis-articulos.html", Map.of("articulos", articulos, "usuario", usuario));
             } finally {
                 em.close();
@@ -455,6 +546,7 @@ public class App {
         app.post("/articulos/nuevo", BlogController::crearArticulo);
         app.post("/articulo/{id}/eliminar", BlogController::eliminarArticulo);
         app.get("/articulo/{id}/editar", BlogController::mostrarFormularioEditar);
+        app.get("/articulo/{id}/contenido", BlogController::obtenerContenido);
         app.post("/articulo/{id}/editar", BlogController::actualizarArticulo);
     }
 
@@ -469,49 +561,43 @@ public class App {
     }
 
     // Configuración del WebSocket para el chat (usuarios y admin)
+    // Protocolo (JSON):
+    //  - cliente -> servidor {"contenido", "receptor"}: envía un mensaje
+    //  - cliente -> servidor {"tipo":"historial","desdeId","limite"}: pide la página de mensajes con id > desdeId
+    //  - servidor -> cliente {"tipo":"mensaje", ...} para cada mensaje nuevo y
+    //    {"tipo":"historial","mensajes","hayMas","ultimoId"} como respuesta a un pedido de historial
+    // Al reconectarse el cliente puede pasar ?desdeId=<último id visto> para recibir solo lo que se perdió.
     private static void configurarWebSocket(Javalin app) {
         app.ws("/ws/chat", ws -> {
             ws.onConnect(ctx -> {
-                wsSessions.add(ctx);
-                // Si el usuario es admin, enviar el historial completo de mensajes
-                User user = ctx.sessionAttribute("usuario");
-                if (user != null && user.isAdmin()) {
-                    EntityManager em = DatabaseUtil.getEntityManager();
-                    try {
-                        List<Mensaje> mensajes = em.createQuery("SELECT m FROM Mensaje m ORDER BY m.fecha ASC", Mensaje.class)
-                                .getResultList();
-                        // Convert to safe DTOs
-                        List<Map<String,Object>> safe = mensajes.stream().map(m -> {
-                            Map<String,Object> map = new HashMap<>();
-                            map.put("id", m.getId());
-                            map.put("contenido", InputSanitizer.encodeForHtml(m.getContenido()));
-                            String autor = m.getEmisor() != null ? (m.getEmisor().getUsername() != null ? m.getEmisor().getUsername() : m.getEmisor().getNombre()) : m.getEmisorAnonimo();
-                            map.put("autor", InputSanitizer.encodeForHtml(autor));
-                            map.put("fecha", m.getFecha());
-                            return map;
-                        }).collect(Collectors.toList());
-                        String json = new ObjectMapper().writeValueAsString(safe);
-                        ctx.send(json);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        em.close();
-                    }
+                UsuarioSesion user = ctx.sessionAttribute("usuario");
+                ChatRouter.registrar(ctx, user);
+                String desdeId = ctx.queryParam("desdeId");
+                if (user != null && desdeId != null) {
+                    enviarHistorial(ctx, user, leerLong(desdeId, 0), ChatServicios.HISTORIAL_LIMITE_DEFECTO);
                 }
             });
 
-            ws.onClose(ctx -> wsSessions.remove(ctx));
+            ws.onClose(ChatRouter::eliminar);
+            ws.onError(ChatRouter::eliminar);
 
             ws.onMessage(ctx -> {
-                User emisor = ctx.sessionAttribute("usuario");
+                UsuarioSesion emisor = ctx.sessionAttribute("usuario");
                 if (emisor == null) return;
                 String msgJson = ctx.message();
-                ObjectMapper mapper = new ObjectMapper();
                 try {
+                    Map<String, Object> msgData = mapperChat.readValue(msgJson, Map.class);
+
+                    if ("historial".equals(msgData.get("tipo"))) {
+                        enviarHistorial(ctx, emisor,
+                                leerLong(msgData.get("desdeId"), 0),
+                                (int) leerLong(msgData.get("limite"), ChatServicios.HISTORIAL_LIMITE_DEFECTO));
+                        return;
+                    }
+
                     // Se espera un JSON con "contenido" y "receptor" (username)
-                    Map<String, String> msgData = mapper.readValue(msgJson, Map.class);
-                    String contenido = msgData.get("contenido");
-                    String receptorUsername = msgData.get("receptor");
+                    String contenido = (String) msgData.get("contenido");
+                    String receptorUsername = (String) msgData.get("receptor");
 
                     // Sanitize inputs
                     contenido = InputSanitizer.stripTags(contenido).trim();
@@ -519,33 +605,22 @@ public class App {
 
                     EntityManager em = DatabaseUtil.getEntityManager();
                     try {
-                        User receptor = em.createQuery("SELECT u FROM User u WHERE u.username = :username", User.class)
-                                .setParameter("username", receptorUsername)
-                                .getSingleResult();
+                        User receptor = UsuarioServicios.buscarPorUsername(em, receptorUsername);
+                        if (receptor == null) return;
 
                         em.getTransaction().begin();
                         Mensaje mensaje = new Mensaje();
                         mensaje.setContenido(contenido);
-                        mensaje.setEmisor(emisor);
+                        mensaje.setEmisor(em.getReference(User.class, emisor.getId()));
                         mensaje.setReceptor(receptor);
                         em.persist(mensaje);
                         em.getTransaction().commit();
+                        ValidacionCondicional.cambioMensajes();
 
-                        // Convertir el mensaje a JSON and broadcast safe DTO
-                        Map<String,Object> dto = new HashMap<>();
-                        dto.put("id", mensaje.getId());
-                        dto.put("contenido", InputSanitizer.encodeForHtml(mensaje.getContenido()));
-                        dto.put("autor", InputSanitizer.encodeForHtml(emisor.getUsername()));
-                        dto.put("receptor", InputSanitizer.encodeForHtml(receptor.getUsername()));
-                        dto.put("fecha", mensaje.getFecha());
-                        String mensajeJson = mapper.writeValueAsString(dto);
-                        wsSessions.forEach(session -> {
-                            try {
-                                session.send(mensajeJson);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        });
+                        // Entregar el mensaje solo al emisor, al receptor y a quienes ven todo el chat
+                        ChatRouter.publicar(ChatServicios.frameMensaje(
+                                mensaje.getId(), mensaje.getContenido(), mensaje.getFecha(),
+                                emisor.getUsername(), receptor.getUsername()), emisor.getId(), receptor.getId());
                     } finally {
                         em.close();
                     }
@@ -556,24 +631,47 @@ public class App {
         });
     }
 
-    private static List<Map<String, Object>> convertArticulosToDTO(List<Articulo> articulos) {
+    private static void enviarHistorial(WsContext ctx, UsuarioSesion usuario, long desdeId, int limite) {
+        try {
+            Map<String, Object> pagina = ChatServicios.paginaHistorial(usuario, desdeId, limite);
+            ChatRouter.enviarA(ctx, mapperChat.writeValueAsString(pagina));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Lee un número de un parámetro o de un campo JSON; si falta o no es válido usa el valor por defecto
+    private static long leerLong(Object valor, long porDefecto) {
+        if (valor instanceof Number) {
+            return ((Number) valor).longValue();
+        }
+        if (valor instanceof String) {
+            try {
+                return Long.parseLong(((String) valor).trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return porDefecto;
+    }
+
+    private static List<Map<String, Object>> convertArticulosToDTO(List<ArticuloResumen> articulos) {
         return articulos.stream().map(a -> {
             Map<String, Object> dto = new HashMap<>();
             dto.put("id", a.getId());
             dto.put("titulo", InputSanitizer.encodeForHtml(a.getTitulo()));
-            String cuerpo = a.getCuerpo();
-            if (cuerpo.length() > 70) {
-                String truncated = InputSanitizer.encodeForHtml(cuerpo.substring(0, 70));
+            // El extracto ya se guarda codificado para HTML
+            if (a.isTruncado()) {
                 // append safe link
-                String withLink = truncated + "... <a href='/articulo/" + a.getId() + "'>Leer más</a>";
+                String withLink = a.getExtracto() + "... <a href='/articulo/" + a.getId() + "'>Leer más</a>";
                 dto.put("cuerpo", withLink);
             } else {
-                dto.put("cuerpo", InputSanitizer.encodeForHtml(cuerpo));
+                dto.put("cuerpo", a.getExtracto());
             }
             dto.put("fecha", a.getFecha());
-            if (a.getAutor() != null) {
-                dto.put("autor", InputSanitizer.encodeForHtml(a.getAutor().getNombre()));
-            }
+            dto.put("autor", InputSanitizer.encodeForHtml(a.getAutorNombre()));
+            dto.put("etiquetas", a.getEtiquetas().stream()
+                    .map(InputSanitizer::encodeForHtml)
+                    .collect(Collectors.toList()));
             return dto;
         }).collect(Collectors.toList());
     }
@@ -0,0 +1,268 @@
+package app.java;
+
+import io.javalin.http.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Caché de respuestas ya renderizadas para visitantes anónimos (/index y /articulo/{id}):
+ * la página es igual para todos ellos, así que se guarda el HTML (o JSON) como bytes, junto a
+ * su versión gzip y un ETag, y los aciertos se sirven sin consultas ni Thymeleaf.
+ *
+ * Cada entrada tiene etiquetas ("feed", "articulo:15") y las escrituras invalidan solo las
+ * etiquetas afectadas (ver BlogController, CommentController y TagController). Las entradas
+ * expiran a los CACHE_PAGINAS_TTL_SEG segundos y hay como máximo CACHE_PAGINAS_MAX;
+ * CACHE_PAGINAS_MAX=0 desactiva la caché.
+ */
+public class CachePaginas {
+
+    public static final String FEED = "feed";
+
+    private static final int MAX_ENTRADAS = Math.max(0, DataSourceConfig.getInt("CACHE_PAGINAS_MAX", 200));
+    private static final long TTL_MS = Math.max(1, DataSourceConfig.getLong("CACHE_PAGINAS_TTL_SEG", 60)) * 1000;
+    private static final int MUESTRA_DESALOJO = 8;
+    // Por debajo de este tamaño no vale la pena guardar la versión gzip
+    private static final int MIN_GZIP = 1024;
+
+    private static final Map<String, Entrada> entradas = new ConcurrentHashMap<>();
+
+    // Se incrementa en cada invalidación: una página renderizada antes no se guarda
+    private static final AtomicLong generacion = new AtomicLong();
+    // Solo con invalidarTodo(); forma parte de los ETag de ValidacionCondicional
+    private static final AtomicLong generacionGlobal = new AtomicLong();
+
+    private static final LongAdder aciertos = new LongAdder();
+    private static final LongAdder fallos = new LongAdder();
+    private static final LongAdder noModificados = new LongAdder();
+    private static final LongAdder invalidaciones = new LongAdder();
+
+    private static final class Entrada {
+        final byte[] cuerpo;
+        final byte[] gzip;
+        final String etag;
+        final String tipo;
+        final Set<String> etiquetas;
+        final long expira;
+
+        Entrada(byte[] cuerpo, byte[] gzip, String etag, String tipo, Set<String> etiquetas, long expira) {
+            this.cuerpo = cuerpo;
+            this.gzip = gzip;
+            this.etag = etag;
+            this.tipo = tipo;
+            this.etiquetas = etiquetas;
+            this.expira = expira;
+        }
+    }
+
+    public static boolean activa() {
+        return MAX_ENTRADAS > 0;
+    }
+
+    // Arma la clave a partir de las partes que cambian la respuesta (ruta, filtros, página...)
+    public static String clave(Object... partes) {
+        StringBuilder clave = new StringBuilder();
+        for (Object parte : partes) {
+            if (clave.length() > 0) clave.append('|');
+            clave.append(parte);
+        }
+        return clave.toString();
+    }
+
+    public static String etiquetaArticulo(long articuloId) {
+        return "articulo:" + articuloId;
+    }
+
+    /**
+     * Generación actual; se toma antes de consultar la base de datos y se pasa a guardar().
+     */
+    public static long generacion() {
+        return generacion.get();
+    }
+
+    public static long generacionGlobal() {
+        return generacionGlobal.get();
+    }
+
+    /**
+     * Si la clave está en caché escribe la respuesta (o un 304) y devuelve true.
+     */
+    public static boolean servir(Context ctx, String clave) {
+        if (!activa() || clave == null) return false;
+        Entrada entrada = entradas.get(clave);
+        // Si ValidacionCondicional ya puso un ETag distinto, la página cambió desde que se guardó
+        // (por ejemplo, "Más leídos"): se vuelve a generar
+        String etag = ctx.res().getHeader("ETag");
+        if (entrada == null || entrada.expira <= System.currentTimeMillis()
+                || (etag != null && !etag.equals(entrada.etag))) {
+            fallos.increment();
+            return false;
+        }
+        aciertos.increment();
+        escribir(ctx, entrada);
+        return true;
+    }
+
+    /**
+     * Toma la respuesta que el handler acaba de generar (ctx.render / ctx.json), la guarda con
+     * sus etiquetas y la vuelve a escribir como bytes con ETag y gzip. Si hubo una invalidación
+     * desde que se tomó la generación, la respuesta se envía igual pero no se guarda.
+     */
+    public static void guardar(Context ctx, String clave, long generacionInicial, String... etiquetas) {
+        if (!activa() || clave == null || ctx.status().getCode() != 200) return;
+        String resultado = ctx.result();
+        if (resultado == null) return;
+
+        byte[] cuerpo = resultado.getBytes(StandardCharsets.UTF_8);
+        String tipo = ctx.res().getContentType();
+        // Si ValidacionCondicional (o el handler) ya puso el ETag por versión, la entrada lo
+        // conserva: así los aciertos responden con el mismo ETag que valida el before
+        String etag = ctx.res().getHeader("ETag");
+        Entrada entrada = new Entrada(cuerpo, comprimir(cuerpo), etag != null ? etag : calcularEtag(cuerpo),
+                tipo != null ? tipo : "text/html; charset=UTF-8", Set.of(etiquetas),
+                System.currentTimeMillis() + TTL_MS);
+
+        if (generacion.get() == generacionInicial) {
+            if (!entradas.containsKey(clave) && entradas.size() >= MAX_ENTRADAS) {
+                desalojar();
+            }
+            entradas.put(clave, entrada);
+            // Una invalidación entre la comprobación y el put pudo no ver la entrada: se quita
+            // (invalidar() cambia la generación antes de borrar, así que aquí se nota)
+            if (generacion.get() != generacionInicial) {
+                entradas.remove(clave, entrada);
+            }
+        }
+        escribir(ctx, entrada);
+    }
+
+    /**
+     * Elimina las entradas que tengan alguna de las etiquetas.
+     */
+    public static void invalidar(String... etiquetas) {
+        generacion.incrementAndGet();
+        invalidaciones.increment();
+        Set<String> buscadas = Set.of(etiquetas);
+        entradas.values().removeIf(entrada -> {
+            for (String etiqueta : entrada.etiquetas) {
+                if (buscadas.contains(etiqueta)) return true;
+            }
+            return false;
+        });
+    }
+
+    // Para cambios que afectan a todas las páginas (por ejemplo, el nombre de un autor)
+    public static void invalidarTodo() {
+        generacionGlobal.incrementAndGet();
+        generacion.incrementAndGet();
+        invalidaciones.increment();
+        entradas.clear();
+    }
+
+    private static void escribir(Context ctx, Entrada entrada) {
+        // Si ValidacionCondicional ya puso su ETag (por versión) se conserva ese
+        String etag = ctx.res().getHeader("ETag");
+        if (etag == null) {
+            etag = entrada.etag;
+            ctx.header("ETag", etag);
+            ctx.header("Vary", "Accept-Encoding, X-Requested-With");
+            // El navegador debe revalidar siempre; si no cambió recibe un 304 sin cuerpo
+            ctx.header("Cache-Control", "no-cache");
+        }
+        // Los bytes ya están listos: Javalin no debe volver a comprimirlos
+        ctx.minSizeForCompression(Integer.MAX_VALUE);
+
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+            noModificados.increment();
+            ctx.status(304).result(new byte[0]);
+            return;
+        }
+
+        ctx.contentType(entrada.tipo);
+        if (entrada.gzip != null && aceptaGzip(ctx.header("Accept-Encoding"))) {
+            ctx.header("Content-Encoding", "gzip");
+            ctx.result(entrada.gzip);
+        } else {
+            ctx.result(entrada.cuerpo);
+        }
+    }
+
+    private static boolean aceptaGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String opcion : acceptEncoding.split(",")) {
+            String[] partes = opcion.trim().split(";");
+            if (partes[0].trim().equalsIgnoreCase("gzip")) {
+                return partes.length < 2 || !partes[1].replace(" ", "").equals("q=0");
+            }
+        }
+        return false;
+    }
+
+    // Entre unas pocas entradas se desaloja la que expira primero
+    private static void desalojar() {
+        String victima = null;
+        long expiraPrimero = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Entrada>> it = entradas.entrySet().iterator();
+        for (int i = 0; i < MUESTRA_DESALOJO && it.hasNext(); i++) {
+            Map.Entry<String, Entrada> entry = it.next();
+            if (entry.getValue().expira < expiraPrimero) {
+                expiraPrimero = entry.getValue().expira;
+                victima = entry.getKey();
+            }
+        }
+        if (victima != null) {
+            entradas.remove(victima);
+        }
+    }
+
+    private static byte[] comprimir(byte[] cuerpo) {
+        if (cuerpo.length < MIN_GZIP) return null;
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(cuerpo.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(salida)) {
+            gzip.write(cuerpo);
+        } catch (IOException e) {
+            return null;
+        }
+        byte[] comprimido = salida.toByteArray();
+        return comprimido.length < cuerpo.length ? comprimido : null;
+    }
+
+    private static String calcularEtag(byte[] cuerpo) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(cuerpo);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        long bytes = 0;
+        for (Entrada entrada : entradas.values()) {
+            bytes += entrada.cuerpo.length + (entrada.gzip != null ? entrada.gzip.length : 0);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entradas", entradas.size());
+        stats.put("maxEntradas", MAX_ENTRADAS);
+        stats.put("ttlSegundos", TTL_MS / 1000);
+        stats.put("bytes", bytes);
+        stats.put("aciertos", aciertos.sum());
+        stats.put("fallos", fallos.sum());
+        stats.put("noModificados", noModificados.sum());
+        stats.put("invalidaciones", invalidaciones.sum());
+        return stats;
+    }
+}
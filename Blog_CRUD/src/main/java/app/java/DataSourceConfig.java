@@ -1,5 +1,7 @@
 package app.java;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import io.github.cdimascio.dotenv.Dotenv;
 
 public class DataSourceConfig {
@@ -23,6 +25,29 @@ public class DataSourceConfig {
         return System.getenv(key);
     }
 
+    // Lee un entero del .env; si falta o no es válido se usa el valor por defecto
+    public static int getInt(String key, int porDefecto) {
+        String valor = get(key);
+        if (valor == null || valor.isBlank()) return porDefecto;
+        try {
+            return Integer.parseInt(valor.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + key + ": " + valor + " (se usa " + porDefecto + ")");
+            return porDefecto;
+        }
+    }
+
+    public static long getLong(String key, long porDefecto) {
+        String valor = get(key);
+        if (valor == null || valor.isBlank()) return porDefecto;
+        try {
+            return Long.parseLong(valor.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + key + ": " + valor + " (se usa " + porDefecto + ")");
+            return porDefecto;
+        }
+    }
+
     public static String getDbUrl() {
         String server = get("DB_SERVER");
         String dbName = get("DB_NAME");
@@ -37,4 +62,40 @@ public class DataSourceConfig {
     public static String getDbPassword() {
         return get("DB_PASSWORD");
     }
+
+    /**
+     * Crea el pool de conexiones (HikariCP) que usa Hibernate.
+     * Todos los límites se pueden ajustar desde el .env:
+     * DB_POOL_MIN_IDLE, DB_POOL_MAX_SIZE, DB_POOL_CONNECTION_TIMEOUT_MS,
+     * DB_POOL_IDLE_TIMEOUT_MS, DB_POOL_MAX_LIFETIME_MS, DB_POOL_LEAK_DETECTION_MS
+     * y DB_STATEMENT_CACHE_SIZE (caché de sentencias preparadas del driver).
+     */
+    public static HikariDataSource crearPoolConexiones() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("blogPool");
+        config.setDriverClassName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
+        config.setJdbcUrl(getDbUrl());
+        config.setUsername(getDbUser());
+        config.setPassword(getDbPassword());
+
+        int maxSize = getInt("DB_POOL_MAX_SIZE", 10);
+        config.setMaximumPoolSize(maxSize);
+        config.setMinimumIdle(Math.min(getInt("DB_POOL_MIN_IDLE", 2), maxSize));
+        // Tiempo máximo que una petición espera por una conexión antes de fallar
+        config.setConnectionTimeout(getLong("DB_POOL_CONNECTION_TIMEOUT_MS", 5_000));
+        config.setIdleTimeout(getLong("DB_POOL_IDLE_TIMEOUT_MS", 300_000));
+        config.setMaxLifetime(getLong("DB_POOL_MAX_LIFETIME_MS", 1_800_000));
+        // Avisa en el log si una conexión no se devuelve al pool (EntityManager sin cerrar)
+        config.setLeakDetectionThreshold(getLong("DB_POOL_LEAK_DETECTION_MS", 20_000));
+        config.setRegisterMbeans(true);
+
+        // Caché de sentencias preparadas en el driver de SQL Server
+        int statementCache = getInt("DB_STATEMENT_CACHE_SIZE", 250);
+        if (statementCache > 0) {
+            config.addDataSourceProperty("disableStatementPooling", "false");
+            config.addDataSourceProperty("statementPoolingCacheSize", String.valueOf(statementCache));
+        }
+
+        return new HikariDataSource(config);
+    }
 }
@@ -1,44 +1,126 @@
 package app.java;
 
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class DatabaseUtil {
     private static EntityManagerFactory emf;
+    private static HikariDataSource dataSource;
+    // Tareas que necesitan la base de datos al apagar (p. ej. volcar contadores pendientes)
+    private static final List<Runnable> alCerrar = new CopyOnWriteArrayList<>();
 
     static {
         try {
-            // Load JDBC properties from .env via DataSourceConfig and override persistence.xml values
-            Map<String, String> props = new HashMap<>();
-            String url = DataSourceConfig.getDbUrl();
-            String user = DataSourceConfig.getDbUser();
-            String password = DataSourceConfig.getDbPassword();
-
-            if (url != null && !url.isEmpty()) props.put("javax.persistence.jdbc.url", url);
-            if (user != null) props.put("javax.persistence.jdbc.user", user);
-            if (password != null) props.put("javax.persistence.jdbc.password", password);
-            // Ensure driver is set
-            props.put("javax.persistence.jdbc.driver", "com.microsoft.sqlserver.jdbc.SQLServerDriver");
+            // El pool de conexiones se configura desde el .env (ver DataSourceConfig) y reemplaza
+            // las propiedades javax.persistence.jdbc.* de persistence.xml
+            dataSource = DataSourceConfig.crearPoolConexiones();
+
+            Map<String, Object> props = new HashMap<>();
+            props.put("javax.persistence.nonJtaDataSource", dataSource);
+            props.put("hibernate.connection.datasource", dataSource);
 
             emf = Persistence.createEntityManagerFactory("blogPU", props);
             System.out.println("Conexión a SQL Server establecida correctamente");
         } catch (Exception e) {
+            if (dataSource != null) dataSource.close();
             throw new RuntimeException("Error al conectar con SQL Server: " + e.getMessage(), e);
         }
 
         // Registrar shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Runnable tarea : alCerrar) {
+                try {
+                    tarea.run();
+                } catch (Throwable t) {
+                    System.err.println("Error al cerrar: " + t.getMessage());
+                }
+            }
             if (emf != null && emf.isOpen()) {
                 emf.close();
                 System.out.println("EntityManagerFactory closed");
             }
+            if (dataSource != null && !dataSource.isClosed()) {
+                dataSource.close();
+                System.out.println("Pool de conexiones cerrado");
+            }
         }));
     }
 
     public static EntityManager getEntityManager() {
         return emf.createEntityManager();
     }
-}
\ No newline at end of file
+
+    /**
+     * Registra una tarea que se ejecuta en el shutdown hook antes de cerrar el
+     * EntityManagerFactory y el pool, en el orden en que se registraron.
+     */
+    public static void alCerrar(Runnable tarea) {
+        alCerrar.add(tarea);
+    }
+
+    /**
+     * Estado actual del pool de conexiones. "esperando" es el número de hilos bloqueados
+     * esperando una conexión: si es mayor que 0 de forma sostenida el pool está saturado.
+     */
+    public static Map<String, Object> getEstadisticasPool() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        int max = dataSource.getMaximumPoolSize();
+        stats.put("maximo", max);
+        stats.put("minimoInactivas", dataSource.getMinimumIdle());
+        if (pool != null) {
+            int activas = pool.getActiveConnections();
+            stats.put("activas", activas);
+            stats.put("inactivas", pool.getIdleConnections());
+            stats.put("total", pool.getTotalConnections());
+            stats.put("esperando", pool.getThreadsAwaitingConnection());
+            stats.put("saturacion", max > 0 ? (double) activas / max : 0.0);
+        }
+        return stats;
+    }
+
+    /**
+     * Aciertos, fallos y escrituras de la caché de segundo nivel por región (entidades Etiqueta
+     * y User y sus @NaturalId). Regiones y tamaños en caffeine.conf.
+     */
+    public static Map<String, Object> getEstadisticasCache() {
+        Statistics estadisticas = emf.unwrap(SessionFactory.class).getStatistics();
+        Map<String, Object> regiones = new LinkedHashMap<>();
+        for (String nombre : estadisticas.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics region = estadisticas.getCacheRegionStatistics(nombre);
+            if (region != null) regiones.put(nombre, estadisticasRegion(region));
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("regiones", regiones);
+        stats.put("naturalId", Map.of(
+                "aciertos", estadisticas.getNaturalIdCacheHitCount(),
+                "fallos", estadisticas.getNaturalIdCacheMissCount(),
+                "escrituras", estadisticas.getNaturalIdCachePutCount()));
+        return stats;
+    }
+
+    private static Map<String, Object> estadisticasRegion(CacheRegionStatistics region) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long aciertos = region.getHitCount();
+        long fallos = region.getMissCount();
+        stats.put("aciertos", aciertos);
+        stats.put("fallos", fallos);
+        stats.put("escrituras", region.getPutCount());
+        // Negativo si el proveedor no lo informa
+        if (region.getElementCountInMemory() >= 0) stats.put("enMemoria", region.getElementCountInMemory());
+        stats.put("tasaAciertos", aciertos + fallos > 0 ? (double) aciertos / (aciertos + fallos) : 0.0);
+        return stats;
+    }
+}
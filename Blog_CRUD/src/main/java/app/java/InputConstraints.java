@@ -27,6 +27,10 @@ public final class InputConstraints {
 
     // Tags
     public static final int ETIQUETA_MAX = 100;
+    public static final int ETIQUETAS_POR_ARTICULO_MAX = 50; // extra tags in one submission are ignored
+
+    // Search
+    public static final int BUSQUEDA_MAX = 200; // longer queries are cut, not rejected
 
     // Simple helpers
     public static boolean exceeds(String s, int max) {
@@ -2,8 +2,85 @@ package app.java;
 
 import org.mindrot.jbcrypt.BCrypt;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
 public class PasswordUtil {
 
+    /*
+     * bcrypt work runs on its own bounded pool (BCRYPT_POOL_SIZE threads, BCRYPT_QUEUE_SIZE
+     * pending tasks) so a burst of logins cannot take over the HTTP threads. When the queue is
+     * full the *Async methods throw RejectedExecutionException right away and the caller
+     * answers 503 instead of making the client wait.
+     */
+    private static final int POOL_SIZE = Math.max(1,
+            DataSourceConfig.getInt("BCRYPT_POOL_SIZE", Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUE_SIZE = Math.max(1, DataSourceConfig.getInt("BCRYPT_QUEUE_SIZE", 64));
+
+    private static final ThreadPoolExecutor executor = crearExecutor();
+
+    // Where the caller's continuation runs once bcrypt is done (the HTTP thread pool, see App)
+    private static volatile Executor continuaciones = Runnable::run;
+
+    private static final Estadistica estadisticaHash = new Estadistica();
+    private static final Estadistica estadisticaCheck = new Estadistica();
+    private static final LongAdder rechazadas = new LongAdder();
+
+    // Latency counters for one kind of operation
+    private static final class Estadistica {
+        final LongAdder cantidad = new LongAdder();
+        final LongAdder esperaNanos = new LongAdder();
+        final LongAdder ejecucionNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void registrar(long espera, long ejecucion) {
+            cantidad.increment();
+            esperaNanos.add(espera);
+            ejecucionNanos.add(ejecucion);
+            maxNanos.accumulateAndGet(espera + ejecucion, Math::max);
+        }
+
+        Map<String, Object> resumen() {
+            long n = cantidad.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("cantidad", n);
+            stats.put("esperaPromedioMs", n > 0 ? esperaNanos.sum() / n / 1_000_000.0 : 0.0);
+            stats.put("ejecucionPromedioMs", n > 0 ? ejecucionNanos.sum() / n / 1_000_000.0 : 0.0);
+            stats.put("maximoMs", maxNanos.get() / 1_000_000.0);
+            return stats;
+        }
+    }
+
+    private static ThreadPoolExecutor crearExecutor() {
+        AtomicInteger contador = new AtomicInteger();
+        return new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE),
+                r -> {
+                    Thread hilo = new Thread(r, "bcrypt-" + contador.incrementAndGet());
+                    hilo.setDaemon(true);
+                    return hilo;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Sets the executor that resumes callers after an async bcrypt operation,
+     * so request work (DB access, rendering) does not run on the bcrypt threads.
+     */
+    public static void usarEjecutorRespuestas(Executor executor) {
+        continuaciones = executor;
+    }
+
     /**
      * Hashes a plain text password using bcrypt.
      * The salt is automatically generated and embedded in the resulting hash.
@@ -26,4 +103,62 @@ public class PasswordUtil {
         // BCrypt extracts the salt from the stored hash and uses it to hash the provided password for comparison.
         return BCrypt.checkpw(plainPassword, hashedPasswordFromDB);
     }
+
+    /**
+     * Same as hashPassword, on the bcrypt pool.
+     * @throws RejectedExecutionException if the pool is saturated
+     */
+    public static CompletableFuture<String> hashPasswordAsync(String plainPassword) {
+        return enviar(estadisticaHash, () -> hashPassword(plainPassword));
+    }
+
+    /**
+     * Same as checkPassword, on the bcrypt pool.
+     * @throws RejectedExecutionException if the pool is saturated
+     */
+    public static CompletableFuture<Boolean> checkPasswordAsync(String plainPassword, String hashedPasswordFromDB) {
+        return enviar(estadisticaCheck, () -> checkPassword(plainPassword, hashedPasswordFromDB));
+    }
+
+    private static <T> CompletableFuture<T> enviar(Estadistica estadistica, Supplier<T> tarea) {
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        long encolada = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long inicio = System.nanoTime();
+                try {
+                    T valor = tarea.get();
+                    estadistica.registrar(inicio - encolada, System.nanoTime() - inicio);
+                    continuar(() -> resultado.complete(valor));
+                } catch (Throwable t) {
+                    continuar(() -> resultado.completeExceptionally(t));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rechazadas.increment();
+            throw e;
+        }
+        return resultado;
+    }
+
+    private static void continuar(Runnable accion) {
+        try {
+            continuaciones.execute(accion);
+        } catch (RejectedExecutionException e) {
+            // HTTP pool full: finish on this thread rather than lose the response
+            accion.run();
+        }
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hilos", POOL_SIZE);
+        stats.put("activos", executor.getActiveCount());
+        stats.put("enCola", executor.getQueue().size());
+        stats.put("capacidadCola", QUEUE_SIZE);
+        stats.put("rechazadas", rechazadas.sum());
+        stats.put("hash", estadisticaHash.resumen());
+        stats.put("verificacion", estadisticaCheck.resumen());
+        return stats;
+    }
 }
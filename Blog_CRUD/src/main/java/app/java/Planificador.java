@@ -0,0 +1,40 @@
+package app.java;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hilo único (daemon) para las tareas periódicas de mantenimiento de la aplicación:
+ * limpiezas de cachés, contadores que se vuelcan a la base de datos, etc.
+ * Las tareas deben ser cortas; si una lanza una excepción se registra y se vuelve a
+ * ejecutar en el siguiente periodo (un ScheduledExecutorService la cancelaría para siempre).
+ */
+public class Planificador {
+
+    private static final ScheduledExecutorService planificador = crear();
+
+    private static ScheduledExecutorService crear() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread hilo = new Thread(r, "planificador");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Ejecuta la tarea cada periodo, empezando un periodo después de llamarlo.
+     */
+    public static ScheduledFuture<?> cadaCierto(String nombre, Runnable tarea, long periodo, TimeUnit unidad) {
+        return planificador.scheduleWithFixedDelay(() -> {
+            try {
+                tarea.run();
+            } catch (Throwable t) {
+                System.err.println("Error en la tarea programada '" + nombre + "': " + t.getMessage());
+            }
+        }, periodo, periodo, unidad);
+    }
+}
@@ -0,0 +1,184 @@
+package app.java;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Límite de peticiones por IP, global y por ruta, configurable desde el .env:
+ *   RATE_LIMIT_GLOBAL=600/60        (600 peticiones cada 60 segundos, cualquier ruta)
+ *   RATE_LIMIT_REGISTRO=5/600       (POST /registro)
+ * Un valor "0" desactiva esa política. Al pasarse se responde 429 con Retry-After.
+ *
+ * Cada clave (política + IP) es un token bucket guardado como un solo AtomicLong con el
+ * algoritmo GCRA: se guarda el instante teórico de la siguiente petición y se actualiza con
+ * compareAndSet, sin locks. La tabla (TablaAcotada) tiene un máximo de claves
+ * (RATE_LIMIT_MAX_CLAVES); si se llena, entre unas pocas claves elegidas al azar se desaloja la
+ * más cercana a estar llena (si ya lo está, no se pierde nada) para hacerle lugar a la IP nueva,
+ * que así tiene su propio bucket.
+ */
+public class RateLimiter {
+
+    private static final int MAX_CLAVES = Math.max(1000, DataSourceConfig.getInt("RATE_LIMIT_MAX_CLAVES", 50_000));
+    private static final int MUESTRA_DESALOJO = 8;
+
+    private static final Politica global = Politica.desdeEnv("GLOBAL", null, null, 600, 60);
+    private static final List<Politica> porRuta = new ArrayList<>();
+
+    static {
+        agregar(Politica.desdeEnv("AUTENTICAR", "POST", "/autenticar", 10, 60));
+        agregar(Politica.desdeEnv("REGISTRO", "POST", "/registro", 5, 600));
+        agregar(Politica.desdeEnv("MENSAJES_ENVIAR", "POST", "/mensajes/enviar", 20, 60));
+        agregar(Politica.desdeEnv("COMENTARIO_NUEVO", "POST", "/comentario/nuevo", 10, 60));
+        agregar(Politica.desdeEnv("INDEX", "GET", "/index", 120, 60));
+    }
+
+    // política:ip -> instante teórico (nanoTime) en que el bucket vuelve a estar lleno
+    private static final TablaAcotada<AtomicLong> buckets = new TablaAcotada<>(MAX_CLAVES, MUESTRA_DESALOJO);
+
+    private static final LongAdder permitidas = new LongAdder();
+    private static final LongAdder rechazadas = new LongAdder();
+
+    private static final class Politica {
+        final String nombre;
+        final String metodo;
+        final String ruta;
+        final int limite;
+        final int segundos;
+        // Tiempo entre peticiones a ritmo sostenido y ráfaga tolerada, en nanos
+        final long intervalo;
+        final long tolerancia;
+
+        Politica(String nombre, String metodo, String ruta, int limite, int segundos) {
+            this.nombre = nombre;
+            this.metodo = metodo;
+            this.ruta = ruta;
+            this.limite = limite;
+            this.segundos = segundos;
+            this.intervalo = limite > 0 ? TimeUnit.SECONDS.toNanos(segundos) / limite : 0;
+            this.tolerancia = intervalo * limite;
+        }
+
+        // Lee RATE_LIMIT_<nombre> con el formato "n/segundos"; si falta o es inválido usa los valores por defecto
+        static Politica desdeEnv(String nombre, String metodo, String ruta, int limite, int segundos) {
+            String valor = DataSourceConfig.get("RATE_LIMIT_" + nombre);
+            if (valor != null && !valor.isBlank()) {
+                try {
+                    String[] partes = valor.trim().split("/");
+                    limite = Integer.parseInt(partes[0].trim());
+                    if (partes.length > 1) segundos = Math.max(1, Integer.parseInt(partes[1].trim()));
+                } catch (NumberFormatException e) {
+                    System.err.println("Valor inválido para RATE_LIMIT_" + nombre + ": " + valor
+                            + " (se usa " + limite + "/" + segundos + ")");
+                }
+            }
+            return new Politica(nombre, metodo, ruta, limite, segundos);
+        }
+
+        boolean activa() {
+            return limite > 0;
+        }
+
+        boolean aplica(Context ctx) {
+            return ruta.equals(ctx.path()) && metodo.equals(ctx.method().name());
+        }
+    }
+
+    private static void agregar(Politica politica) {
+        if (politica.activa()) porRuta.add(politica);
+    }
+
+    /**
+     * Registra el filtro antes que el resto de los before (ver App.configurarRutas) y el barrido
+     * periódico de buckets ya llenos.
+     */
+    public static void instalar(Javalin app) {
+        app.before(RateLimiter::filtrar);
+        Planificador.cadaCierto("limpieza de rate limit", RateLimiter::limpiar, 1, TimeUnit.MINUTES);
+    }
+
+    private static void filtrar(Context ctx) {
+        if (ctx.path().startsWith("/static")) return;
+
+        String ip = ctx.ip();
+        long ahora = System.nanoTime();
+        long espera = 0;
+        if (global.activa()) {
+            espera = consumir(global, ip, ahora);
+        }
+        for (int i = 0; i < porRuta.size() && espera == 0; i++) {
+            Politica politica = porRuta.get(i);
+            if (politica.aplica(ctx)) {
+                espera = consumir(politica, ip, ahora);
+            }
+        }
+
+        if (espera == 0) {
+            permitidas.increment();
+            return;
+        }
+        rechazadas.increment();
+        long segundos = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(espera + TimeUnit.SECONDS.toNanos(1) - 1));
+        ctx.status(429)
+                .header("Retry-After", String.valueOf(segundos))
+                .result("Demasiadas solicitudes. Intenta de nuevo en " + segundos + " segundo(s).");
+        ctx.skipRemainingHandlers();
+    }
+
+    /**
+     * Consume una petición del bucket de la IP.
+     * @return 0 si se permite, o los nanos que faltan para que vuelva a haber lugar
+     */
+    private static long consumir(Politica politica, String ip, long ahora) {
+        AtomicLong bucket = bucketDe(politica.nombre + ":" + ip);
+        while (true) {
+            long actual = bucket.get();
+            long siguiente = (actual - ahora > 0 ? actual : ahora) + politica.intervalo;
+            long exceso = siguiente - ahora - politica.tolerancia;
+            if (exceso > 0) {
+                return exceso;
+            }
+            if (bucket.compareAndSet(actual, siguiente)) {
+                return 0;
+            }
+        }
+    }
+
+    // Si hay que hacer lugar se desaloja el bucket que antes vuelve a estar lleno: olvidarlo solo
+    // le devuelve a esa IP lo que le faltaba recuperar
+    private static AtomicLong bucketDe(String clave) {
+        long ahora = System.nanoTime();
+        return buckets.obtenerOCrear(clave, () -> new AtomicLong(ahora), bucket -> bucket.get() - ahora);
+    }
+
+    // Un bucket cuyo instante ya pasó está lleno: es igual a no tenerlo
+    private static void limpiar() {
+        long ahora = System.nanoTime();
+        buckets.quitarSi(bucket -> bucket.get() - ahora <= 0);
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        Map<String, Object> politicas = new LinkedHashMap<>();
+        if (global.activa()) politicas.put(global.nombre, global.limite + "/" + global.segundos);
+        for (Politica politica : porRuta) {
+            politicas.put(politica.nombre, politica.limite + "/" + politica.segundos);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("politicas", politicas);
+        stats.put("claves", buckets.tamano());
+        stats.put("maxClaves", MAX_CLAVES);
+        stats.put("permitidas", permitidas.sum());
+        stats.put("rechazadas", rechazadas.sum());
+        stats.put("desalojadas", buckets.desalojados());
+        stats.put("sinLugar", buckets.sinLugar());
+        return stats;
+    }
+}
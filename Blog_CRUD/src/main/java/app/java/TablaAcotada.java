@@ -0,0 +1,178 @@
+package app.java;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Mapa concurrente de claves String con un máximo de entradas, para tablas cuyas claves
+ * elige el cliente (IPs, usernames). Se usa en RateLimiter y LoginAttemptService.
+ *
+ * - El máximo se respeta aunque lleguen muchas claves nuevas a la vez: cada inserción reserva
+ *   su lugar en un contador antes de insertar y, si no hay, primero desaloja una entrada.
+ * - La entrada a desalojar se elige entre una muestra tomada desde una posición al azar: cada
+ *   clave ocupa además una ranura de un arreglo del doble del máximo, así que la muestra no
+ *   depende del orden del hash y no se puede elegir una clave que quede siempre fuera de ella.
+ *
+ * Las lecturas de claves existentes no toman locks.
+ */
+public final class TablaAcotada<V> {
+
+    // Intentos de hacer lugar antes de devolver un valor sin guardar
+    private static final int INTENTOS_DESALOJO = 3;
+
+    private static final class Nodo<V> {
+        final V valor;
+        final int ranura;
+
+        Nodo(V valor, int ranura) {
+            this.valor = valor;
+            this.ranura = ranura;
+        }
+    }
+
+    private final Map<String, Nodo<V>> mapa = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<String> ranuras;
+    private final AtomicInteger reservadas = new AtomicInteger();
+    private final int maximo;
+    private final int muestra;
+    private final LongAdder desalojados = new LongAdder();
+    private final LongAdder sinLugar = new LongAdder();
+
+    public TablaAcotada(int maximo, int muestra) {
+        this.maximo = Math.max(1, maximo);
+        this.muestra = Math.max(1, muestra);
+        this.ranuras = new AtomicReferenceArray<>(this.maximo * 2);
+    }
+
+    public V get(String clave) {
+        Nodo<V> nodo = mapa.get(clave);
+        return nodo != null ? nodo.valor : null;
+    }
+
+    /**
+     * Devuelve el valor de la clave o crea uno. Si la tabla está llena desaloja, de una muestra
+     * al azar, la entrada con menor prioridad. Si aun así no hay lugar (todas las ranuras se
+     * están ocupando en ese momento) devuelve el valor nuevo sin guardarlo.
+     */
+    public V obtenerOCrear(String clave, Supplier<V> crear, ToLongFunction<V> prioridad) {
+        Nodo<V> nodo = mapa.get(clave);
+        if (nodo != null) return nodo.valor;
+
+        int intentos = 0;
+        while (reservadas.incrementAndGet() > maximo) {
+            reservadas.decrementAndGet();
+            if (++intentos > INTENTOS_DESALOJO) {
+                sinLugar.increment();
+                return crear.get();
+            }
+            desalojar(prioridad);
+        }
+
+        Nodo<V> nuevo = new Nodo<>(crear.get(), ocuparRanura(clave));
+        Nodo<V> existente = mapa.putIfAbsent(clave, nuevo);
+        if (existente != null) {
+            // Otro hilo la creó primero: se devuelve el lugar reservado
+            ranuras.set(nuevo.ranura, null);
+            reservadas.decrementAndGet();
+            return existente.valor;
+        }
+        return nuevo.valor;
+    }
+
+    public void quitar(String clave) {
+        Nodo<V> nodo = mapa.remove(clave);
+        if (nodo != null) liberar(nodo);
+    }
+
+    // Solo si la clave sigue teniendo ese valor
+    public void quitar(String clave, V valor) {
+        Nodo<V> nodo = mapa.get(clave);
+        if (nodo != null && nodo.valor == valor && mapa.remove(clave, nodo)) {
+            liberar(nodo);
+        }
+    }
+
+    public void quitarSi(Predicate<V> condicion) {
+        for (Map.Entry<String, Nodo<V>> entrada : mapa.entrySet()) {
+            Nodo<V> nodo = entrada.getValue();
+            if (condicion.test(nodo.valor) && mapa.remove(entrada.getKey(), nodo)) {
+                liberar(nodo);
+            }
+        }
+    }
+
+    public void limpiar() {
+        quitarSi(valor -> true);
+    }
+
+    public int tamano() {
+        return mapa.size();
+    }
+
+    public int maximo() {
+        return maximo;
+    }
+
+    public long desalojados() {
+        return desalojados.sum();
+    }
+
+    public long sinLugar() {
+        return sinLugar.sum();
+    }
+
+    // Hay como mucho 'maximo' ranuras ocupadas de 2 * maximo: desde un punto al azar se
+    // encuentra una libre en pocos pasos
+    private int ocuparRanura(String clave) {
+        int largo = ranuras.length();
+        int inicio = ThreadLocalRandom.current().nextInt(largo);
+        for (int i = 0; ; i = (i + 1) % largo) {
+            int indice = (inicio + i) % largo;
+            if (ranuras.get(indice) == null && ranuras.compareAndSet(indice, null, clave)) {
+                return indice;
+            }
+        }
+    }
+
+    private void liberar(Nodo<V> nodo) {
+        ranuras.set(nodo.ranura, null);
+        reservadas.decrementAndGet();
+    }
+
+    // Recorre las ranuras desde una posición al azar hasta juntar 'muestra' entradas y quita la
+    // de menor prioridad
+    private void desalojar(ToLongFunction<V> prioridad) {
+        int largo = ranuras.length();
+        int inicio = ThreadLocalRandom.current().nextInt(largo);
+        String victima = null;
+        Nodo<V> nodoVictima = null;
+        long menor = Long.MAX_VALUE;
+        int vistas = 0;
+        for (int i = 0; i < largo && vistas < muestra; i++) {
+            int indice = (inicio + i) % largo;
+            String clave = ranuras.get(indice);
+            if (clave == null) continue;
+            Nodo<V> nodo = mapa.get(clave);
+            // La ranura puede ser de una entrada que se está quitando o insertando
+            if (nodo == null || nodo.ranura != indice) continue;
+            vistas++;
+            long valor = prioridad.applyAsLong(nodo.valor);
+            if (victima == null || valor < menor) {
+                victima = clave;
+                nodoVictima = nodo;
+                menor = valor;
+            }
+        }
+        if (victima != null && mapa.remove(victima, nodoVictima)) {
+            liberar(nodoVictima);
+            desalojados.increment();
+        }
+    }
+}
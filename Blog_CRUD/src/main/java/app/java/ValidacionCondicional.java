@@ -0,0 +1,268 @@
+package app.java;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import modelos.Articulo;
+import modelos.UsuarioSesion;
+import servicios.AgregadoEtiquetas;
+import servicios.ArticulosRelacionados;
+import servicios.ContadorVistas;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * GET condicional (If-None-Match / If-Modified-Since) para las páginas y los endpoints JSON
+ * que se consultan seguido. Si la petición trae un validador, antes de ejecutar el handler se
+ * calcula la versión del recurso y, si coincide con la del cliente, se responde 304 sin
+ * consultar nada más ni renderizar.
+ *
+ * La versión del listado y la del chat son contadores en memoria (la generación de
+ * CachePaginas, que cambia con cada escritura de artículos, comentarios o etiquetas, más las
+ * versiones de "Más leídos" y de la nube de etiquetas; y cambioMensajes()), así que no
+ * consultan la base de datos. La de un artículo es su fechaModificacion (y, para la página, su
+ * total de lecturas y la huella del panel de relacionados), una búsqueda por clave primaria que
+ * solo se hace si hay validador; sin él el ETag lo pone el handler con el artículo que ya cargó
+ * (etiquetarArticulo / etiquetarPaginaArticulo).
+ *
+ * El ETag también incluye al usuario de la sesión (las páginas cambian según quién las ve) y
+ * la versión global de CachePaginas, que cambia con el nombre de un autor o al reiniciar.
+ */
+public class ValidacionCondicional {
+
+    private static final String ARRANQUE = Long.toString(System.currentTimeMillis(), 36);
+
+    // Cambia con cada mensaje creado o eliminado (ver cambioMensajes)
+    private static final AtomicLong versionMensajes = new AtomicLong();
+
+    private static final LongAdder noModificados = new LongAdder();
+    private static final LongAdder validados = new LongAdder();
+
+    // Versión de un recurso: etiqueta para el ETag y, si la hay, fecha para Last-Modified
+    private static final class Version {
+        final String valor;
+        final Date modificado;
+
+        Version(String valor, Date modificado) {
+            this.valor = valor;
+            this.modificado = modificado;
+        }
+    }
+
+    /**
+     * Registra los validadores. Va después del middleware de sesión para no responder 304
+     * a una petición que debía redirigirse al login.
+     */
+    public static void instalar(Javalin app) {
+        registrar(app, "/index", true, ctx -> versionFeed());
+        // Con no-cache el navegador revalida cada vez que se abre el artículo: un 304 también es una lectura
+        registrar(app, "/articulo/{id}", false, ctx -> versionPaginaArticulo(ctx.pathParam("id")),
+                ctx -> ContadorVistas.registrar(Long.parseLong(ctx.pathParam("id"))));
+        registrar(app, "/articulo/{articuloId}/comentarios", false, ctx -> versionArticulo(ctx.pathParam("articuloId")));
+        registrar(app, "/articulo/{articuloId}/etiquetas", false, ctx -> versionArticulo(ctx.pathParam("articuloId")));
+        registrar(app, "/mensajes/obtener", true, ctx -> versionMensajes());
+        registrar(app, "/api/chats", true, ctx -> versionMensajes());
+        registrar(app, "/api/chats/{alias}", true, ctx -> versionMensajes());
+        registrar(app, "/admin/chats", true, ctx -> versionMensajes());
+    }
+
+    /**
+     * Llamar después de crear o eliminar mensajes: cambia el ETag de las rutas del chat.
+     */
+    public static void cambioMensajes() {
+        versionMensajes.incrementAndGet();
+    }
+
+    /**
+     * Pone el ETag / Last-Modified de un artículo ya cargado por el handler (la petición no
+     * traía validador, así que el before no lo calculó). Llamar antes de CachePaginas.guardar
+     * para que la página guardada conserve este ETag.
+     */
+    public static void etiquetarArticulo(Context ctx, long articuloId, Date modificado) {
+        if (modificado == null || ctx.res().getHeader("ETag") != null) return;
+        ponerCabeceras(ctx, new Version("a" + articuloId + "." + modificado.getTime(), modificado));
+    }
+
+    // Igual para la página del artículo, que además muestra las lecturas y los relacionados
+    public static void etiquetarPaginaArticulo(Context ctx, Articulo articulo) {
+        Date modificado = articulo.getFechaModificacion();
+        if (modificado == null || ctx.res().getHeader("ETag") != null) return;
+        ponerCabeceras(ctx, versionPagina(articulo.getId(), modificado, articulo.getTotalVistas()));
+    }
+
+    // Sin Last-Modified: las lecturas y los relacionados cambian sin tocar fechaModificacion
+    private static Version versionPagina(long articuloId, Date modificado, long totalVistas) {
+        return new Version("p" + articuloId + "." + modificado.getTime() + "." + totalVistas + "."
+                + Integer.toHexString(ArticulosRelacionados.huella(articuloId)), null);
+    }
+
+    private static void registrar(Javalin app, String ruta, boolean enMemoria, Function<Context, Version> version) {
+        registrar(app, ruta, enMemoria, version, ctx -> { });
+    }
+
+    /**
+     * @param enMemoria la versión no consulta la base de datos: se calcula siempre y el ETag
+     *                  queda puesto también en las respuestas completas
+     */
+    private static void registrar(Javalin app, String ruta, boolean enMemoria, Function<Context, Version> version,
+                                  Consumer<Context> alNoModificado) {
+        app.before(ruta, ctx -> {
+            // Solo GET, y solo si el middleware no respondió ya (por ejemplo, con una redirección)
+            if (ctx.method() != HandlerType.GET || ctx.status().getCode() != 200) return;
+            boolean validador = ctx.header("If-None-Match") != null || ctx.header("If-Modified-Since") != null;
+            if (!validador && !enMemoria) return;
+            Version actual = version.apply(ctx);
+            if (actual == null) return;
+            String etag = ponerCabeceras(ctx, actual);
+            if (validador && noModificado(ctx, etag, actual)) {
+                alNoModificado.accept(ctx);
+                ctx.skipRemainingHandlers();
+            }
+        });
+    }
+
+    // Pone ETag / Last-Modified / Cache-Control y devuelve el ETag
+    private static String ponerCabeceras(Context ctx, Version version) {
+        UsuarioSesion usuario = ctx.sessionAttribute("usuario");
+        // /index devuelve HTML o JSON según X-Requested-With
+        String variante = "XMLHttpRequest".equals(ctx.header("X-Requested-With")) ? "x" : "h";
+        String etag = "W/\"" + version.valor + "-" + variante + "-" + componenteUsuario(usuario)
+                + "-" + ARRANQUE + "." + CachePaginas.generacionGlobal() + "\"";
+
+        ctx.header("ETag", etag);
+        ctx.header("Vary", "Accept-Encoding, X-Requested-With");
+        ctx.header("Cache-Control", usuario != null ? "private, no-cache" : "no-cache");
+        if (version.modificado != null) {
+            ctx.header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    ZonedDateTime.ofInstant(version.modificado.toInstant(), ZoneOffset.UTC)));
+        }
+        return etag;
+    }
+
+    /**
+     * Devuelve true (con estado 304) si el cliente ya tiene esta versión.
+     */
+    private static boolean noModificado(Context ctx, String etag, Version version) {
+        validados.increment();
+        String ifNoneMatch = ctx.header("If-None-Match");
+        boolean coincide;
+        if (ifNoneMatch != null) {
+            coincide = coincideEtag(ifNoneMatch, etag);
+        } else {
+            // If-Modified-Since solo se usa si el cliente no mandó ETag (RFC 9110)
+            coincide = version.modificado != null && noModificadoDesde(ctx.header("If-Modified-Since"), version.modificado);
+        }
+
+        if (coincide) {
+            noModificados.increment();
+            ctx.status(304);
+        }
+        return coincide;
+    }
+
+    private static String componenteUsuario(UsuarioSesion usuario) {
+        if (usuario == null) return "a";
+        int datos = Objects.hash(usuario.getNombre(), usuario.isAdmin(), usuario.isAutor(), usuario.getFotoHash());
+        return usuario.getId() + "." + Integer.toHexString(datos);
+    }
+
+    // Comparación débil: se ignora el prefijo W/ de ambos lados
+    private static boolean coincideEtag(String ifNoneMatch, String etag) {
+        String buscado = etag.substring(2);
+        for (String candidato : ifNoneMatch.split(",")) {
+            String valor = candidato.trim();
+            if (valor.equals("*")) return true;
+            if (valor.startsWith("W/")) valor = valor.substring(2);
+            if (valor.equals(buscado)) return true;
+        }
+        return false;
+    }
+
+    private static boolean noModificadoDesde(String ifModifiedSince, Date modificado) {
+        if (ifModifiedSince == null) return false;
+        try {
+            Instant desde = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            // Last-Modified tiene precisión de segundos
+            return modificado.toInstant().getEpochSecond() <= desde.getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    // Listado principal: cambia con cada invalidación de CachePaginas, que hacen todas las
+    // escrituras de artículos, comentarios y etiquetas (ARRANQUE cubre los reinicios)
+    // La barra lateral ("Más leídos" y la nube) cambia sin invalidaciones: sus versiones van aparte
+    private static Version versionFeed() {
+        return new Version("f" + CachePaginas.generacion() + "." + ContadorVistas.versionMasLeidos()
+                + "." + AgregadoEtiquetas.version(), null);
+    }
+
+    // Un artículo: su fechaModificacion cambia al editarlo y al cambiar sus comentarios o etiquetas
+    private static Version versionArticulo(String id) {
+        long articuloId;
+        try {
+            articuloId = Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            List<Date> fechas = em.createQuery(
+                            "SELECT a.fechaModificacion FROM Articulo a WHERE a.id = :id", Date.class)
+                    .setParameter("id", articuloId)
+                    .getResultList();
+            // Sin artículo el handler responde 404
+            if (fechas.isEmpty() || fechas.get(0) == null) return null;
+            Date modificado = fechas.get(0);
+            return new Version("a" + articuloId + "." + modificado.getTime(), modificado);
+        } finally {
+            em.close();
+        }
+    }
+
+    private static Version versionPaginaArticulo(String id) {
+        long articuloId;
+        try {
+            articuloId = Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            List<Object[]> filas = em.createQuery(
+                            "SELECT a.fechaModificacion, a.totalVistas FROM Articulo a WHERE a.id = :id", Object[].class)
+                    .setParameter("id", articuloId)
+                    .getResultList();
+            if (filas.isEmpty() || filas.get(0)[0] == null) return null;
+            return versionPagina(articuloId, (Date) filas.get(0)[0], ((Number) filas.get(0)[1]).longValue());
+        } finally {
+            em.close();
+        }
+    }
+
+    // Chat: cambia con cada mensaje creado o eliminado
+    private static Version versionMensajes() {
+        return new Version("m" + versionMensajes.get(), null);
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("validados", validados.sum());
+        stats.put("noModificados", noModificados.sum());
+        return stats;
+    }
+}
@@ -1,10 +1,21 @@
 package modelos;
 
+import app.java.InputSanitizer;
+
 import javax.persistence.*;
 import java.util.*;
 
 @Entity
+// Índice para la paginación por cursor del listado principal (ORDER BY fecha DESC, id DESC)
+// e índice para la versión del listado que usa el GET condicional (MAX(fechaModificacion))
+@Table(indexes = {
+        @Index(name = "idx_articulo_fecha_id", columnList = "fecha, id"),
+        @Index(name = "idx_articulo_modificacion", columnList = "fechaModificacion")
+})
 public class Articulo {
+
+    public static final int LARGO_EXTRACTO = 70;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -16,6 +27,15 @@ public class Articulo {
     @Column(nullable = false, length = 10000)
     private String cuerpo;
 
+    // Primeros LARGO_EXTRACTO caracteres del cuerpo, ya codificados para HTML. Se calculan en
+    // setCuerpo: los listados los leen en lugar del @Lob (ver FeedServicios y ArticuloResumen)
+    @Column(length = 500)
+    private String extracto;
+
+    // true si el cuerpo es más largo que el extracto (el listado muestra "Leer más")
+    @Column(nullable = false, columnDefinition = "bit default 0")
+    private boolean extractoTruncado;
+
     // La relación con User usa "autor_id" para referenciar al campo id de User
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "autor_id", nullable = false)
@@ -25,6 +45,23 @@ public class Articulo {
     @Column(nullable = false)
     private Date fecha;
 
+    // Última modificación del artículo, sus comentarios o sus etiquetas (ETag / Last-Modified)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date fechaModificacion;
+
+    // Contadores para los listados, sin cargar comentarios ni etiquetas. Se mantienen con UPDATE
+    // masivos en la misma transacción (ver ArticuloServicios.sumarComentarios / sumarEtiquetas);
+    // updatable = false evita que guardar la entidad los pise con un valor viejo
+    @Column(nullable = false, updatable = false, columnDefinition = "int default 0")
+    private int totalComentarios;
+
+    @Column(nullable = false, updatable = false, columnDefinition = "int default 0")
+    private int totalEtiquetas;
+
+    // Lecturas de /articulo/{id}; las suma servicios.ContadorVistas en lotes, no en cada visita
+    @Column(nullable = false, updatable = false, columnDefinition = "bigint default 0")
+    private long totalVistas;
+
     @OneToMany(mappedBy = "articulo", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Comentario> comentarios = new ArrayList<>();
 
@@ -38,6 +75,7 @@ public class Articulo {
 
     public Articulo() {
         this.fecha = new Date();
+        this.fechaModificacion = this.fecha;
     }
 
     // Getters y Setters
@@ -60,6 +98,17 @@ public class Articulo {
 
     public void setCuerpo(String cuerpo) {
         this.cuerpo = cuerpo;
+        String texto = cuerpo != null ? cuerpo : "";
+        this.extractoTruncado = texto.length() > LARGO_EXTRACTO;
+        this.extracto = InputSanitizer.encodeForHtml(extractoTruncado ? texto.substring(0, LARGO_EXTRACTO) : texto);
+    }
+
+    public String getExtracto() {
+        return extracto;
+    }
+
+    public boolean isExtractoTruncado() {
+        return extractoTruncado;
     }
 
     public User getAutor() {
@@ -78,6 +127,26 @@ public class Articulo {
         this.fecha = fecha;
     }
 
+    public Date getFechaModificacion() {
+        return fechaModificacion;
+    }
+
+    public void setFechaModificacion(Date fechaModificacion) {
+        this.fechaModificacion = fechaModificacion;
+    }
+
+    public int getTotalComentarios() {
+        return totalComentarios;
+    }
+
+    public int getTotalEtiquetas() {
+        return totalEtiquetas;
+    }
+
+    public long getTotalVistas() {
+        return totalVistas;
+    }
+
     public List<Comentario> getComentarios() {
         return Collections.unmodifiableList(comentarios);
     }
@@ -96,8 +165,10 @@ public class Articulo {
         return Collections.unmodifiableList(etiquetas);
     }
 
+    // Solo al crear el artículo: el contador se guarda con el INSERT
     public void setEtiquetas(List<Etiqueta> etiquetas) {
         this.etiquetas = new ArrayList<>(etiquetas);
+        this.totalEtiquetas = this.etiquetas.size();
     }
 
     public void addEtiqueta(Etiqueta etiqueta) {
@@ -0,0 +1,30 @@
+package modelos;
+
+/**
+ * Un artículo del panel "Artículos relacionados" de /articulo/{id} (no es una entidad).
+ * Lo arma servicios.ArticulosRelacionados; similitud es el índice de Jaccard de las etiquetas.
+ */
+public class ArticuloRelacionado {
+
+    private final Long id;
+    private final String titulo;
+    private final double similitud;
+
+    public ArticuloRelacionado(Long id, String titulo, double similitud) {
+        this.id = id;
+        this.titulo = titulo;
+        this.similitud = similitud;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTitulo() {
+        return titulo;
+    }
+
+    public double getSimilitud() {
+        return similitud;
+    }
+}
@@ -0,0 +1,68 @@
+package modelos;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Vista de solo lectura de un artículo para los listados (no es una entidad).
+ * Se construye directamente desde JPQL con "SELECT new modelos.ArticuloResumen(...)",
+ * así el listado no lee el cuerpo (@Lob), ni el autor, ni las colecciones LAZY.
+ */
+public class ArticuloResumen {
+
+    private final Long id;
+    private final String titulo;
+    private final String extracto;
+    private final boolean truncado;
+    private final Date fecha;
+    private final String autorNombre;
+    private final int totalComentarios;
+    private final List<String> etiquetas = new ArrayList<>();
+
+    /**
+     * @param extracto columna Articulo.extracto, ya codificada para HTML (no volver a escaparla)
+     */
+    public ArticuloResumen(Long id, String titulo, String extracto, boolean truncado, Date fecha,
+                           String autorNombre, int totalComentarios) {
+        this.id = id;
+        this.titulo = titulo;
+        this.extracto = extracto != null ? extracto : "";
+        this.truncado = truncado;
+        this.fecha = fecha;
+        this.autorNombre = autorNombre;
+        this.totalComentarios = totalComentarios;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTitulo() {
+        return titulo;
+    }
+
+    public String getExtracto() {
+        return extracto;
+    }
+
+    public boolean isTruncado() {
+        return truncado;
+    }
+
+    public Date getFecha() {
+        return fecha;
+    }
+
+    public String getAutorNombre() {
+        return autorNombre;
+    }
+
+    public int getTotalComentarios() {
+        return totalComentarios;
+    }
+
+    public List<String> getEtiquetas() {
+        return etiquetas;
+    }
+}
@@ -0,0 +1,30 @@
+package modelos;
+
+/**
+ * Un artículo de /tendencias (no es una entidad). Lo arma servicios.RankingTendencias;
+ * puntaje es la suma de vistas y comentarios ponderados, decaída a este momento.
+ */
+public class ArticuloTendencia {
+
+    private final Long id;
+    private final String titulo;
+    private final double puntaje;
+
+    public ArticuloTendencia(Long id, String titulo, double puntaje) {
+        this.id = id;
+        this.titulo = titulo;
+        this.puntaje = puntaje;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTitulo() {
+        return titulo;
+    }
+
+    public double getPuntaje() {
+        return puntaje;
+    }
+}
@@ -0,0 +1,30 @@
+package modelos;
+
+/**
+ * Un artículo del panel "Más leídos esta semana" (no es una entidad). Lo arma
+ * servicios.ContadorVistas; vistas es el total de los últimos 7 días.
+ */
+public class ArticuloVistas {
+
+    private final Long id;
+    private final String titulo;
+    private final long vistas;
+
+    public ArticuloVistas(Long id, String titulo, long vistas) {
+        this.id = id;
+        this.titulo = titulo;
+        this.vistas = vistas;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTitulo() {
+        return titulo;
+    }
+
+    public long getVistas() {
+        return vistas;
+    }
+}
@@ -3,6 +3,8 @@ package modelos;
 import javax.persistence.*;
 
 @Entity
+// Índice para la paginación por cursor de los comentarios de un artículo (ver ComentarioServicios)
+@Table(indexes = @Index(name = "idx_comentario_articulo_id", columnList = "articulo_id, id"))
 public class Comentario {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -0,0 +1,31 @@
+package modelos;
+
+/**
+ * Vista de solo lectura de un comentario (no es una entidad). Se construye con
+ * "SELECT new modelos.ComentarioResumen(...)" junto con el nombre del autor, así listar
+ * los comentarios de un artículo no carga cada autor por separado.
+ */
+public class ComentarioResumen {
+
+    private final Long id;
+    private final String comentario;
+    private final String autorNombre;
+
+    public ComentarioResumen(Long id, String comentario, String autorNombre) {
+        this.id = id;
+        this.comentario = comentario;
+        this.autorNombre = autorNombre;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getComentario() {
+        return comentario;
+    }
+
+    public String getAutorNombre() {
+        return autorNombre;
+    }
+}
@@ -0,0 +1,36 @@
+package modelos;
+
+/**
+ * Etiqueta con el número de artículos que la usan, para la nube de la barra lateral de /index.
+ * La arma servicios.AgregadoEtiquetas; nivel va de 1 a 5 y da el tamaño en la nube.
+ */
+public class EtiquetaResumen {
+
+    private final Long id;
+    private final String etiqueta;
+    private final long total;
+    private final int nivel;
+
+    public EtiquetaResumen(Long id, String etiqueta, long total, int nivel) {
+        this.id = id;
+        this.etiqueta = etiqueta;
+        this.total = total;
+        this.nivel = nivel;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getEtiqueta() {
+        return etiqueta;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int getNivel() {
+        return nivel;
+    }
+}
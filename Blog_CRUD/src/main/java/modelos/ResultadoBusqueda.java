@@ -0,0 +1,50 @@
+package modelos;
+
+import java.util.Date;
+
+/**
+ * Un artículo encontrado por /buscar (no es una entidad). Los datos salen del índice de
+ * búsqueda, sin consultar la base de datos; el extracto ya está codificado para HTML.
+ */
+public class ResultadoBusqueda {
+
+    private final Long id;
+    private final String titulo;
+    private final String extracto;
+    private final String autorNombre;
+    private final Date fecha;
+    private final double puntaje;
+
+    public ResultadoBusqueda(Long id, String titulo, String extracto, String autorNombre, Date fecha, double puntaje) {
+        this.id = id;
+        this.titulo = titulo;
+        this.extracto = extracto;
+        this.autorNombre = autorNombre;
+        this.fecha = fecha;
+        this.puntaje = puntaje;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTitulo() {
+        return titulo;
+    }
+
+    public String getExtracto() {
+        return extracto;
+    }
+
+    public String getAutorNombre() {
+        return autorNombre;
+    }
+
+    public Date getFecha() {
+        return fecha;
+    }
+
+    public double getPuntaje() {
+        return puntaje;
+    }
+}
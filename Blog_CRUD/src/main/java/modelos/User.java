@@ -1,19 +1,29 @@
 package modelos;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.List;
 import app.java.PasswordUtil;
 
+// En la caché de segundo nivel por id y por username (regiones en caffeine.conf)
 @Entity
 @Table(name = "usuarios")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "usuarios")
+@NaturalIdCache(region = "usuarios-por-username")
 public class User {
     // Nueva clave primaria interna
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    // El username sigue siendo único
+    // El username sigue siendo único (se puede cambiar desde el perfil)
+    @NaturalId(mutable = true)
     @Column(unique = true, nullable = false, length = 50)
     private String username;
 
@@ -39,10 +49,19 @@ public class User {
     @Column(nullable = true, length = 100)
     private String fotoMimeType;
 
+    // SHA-256 de la foto en el almacén de avatares (se sirve en /avatars/{hash})
+    @Column(nullable = true, length = 64)
+    private String fotoHash;
+
+    // Columna heredada: las fotos en base64 se migran al almacén al arrancar (AvatarServicios)
     @Lob
     @Column(nullable = true)
     private String fotoBase64;
 
+    // Versión de los tokens "Recordar usuario": al incrementarla se revocan los emitidos antes
+    @Column(nullable = true)
+    private Integer versionToken;
+
     public User() {
     }
 
@@ -84,6 +103,13 @@ public class User {
         }
     }
 
+    /**
+     * Stores an already computed bcrypt hash (see PasswordUtil.hashPasswordAsync).
+     */
+    public void setPasswordHash(String passwordHash) {
+        this.password = passwordHash;
+    }
+
     public String getNombre() {
         return nombre;
     }
@@ -124,6 +150,14 @@ public class User {
         this.fotoMimeType = fotoMimeType;
     }
 
+    public String getFotoHash() {
+        return fotoHash;
+    }
+
+    public void setFotoHash(String fotoHash) {
+        this.fotoHash = fotoHash;
+    }
+
     public String getFotoBase64() {
         return fotoBase64;
     }
@@ -131,4 +165,12 @@ public class User {
     public void setFotoBase64(String fotoBase64) {
         this.fotoBase64 = fotoBase64;
     }
+
+    public Integer getVersionToken() {
+        return versionToken;
+    }
+
+    public void setVersionToken(Integer versionToken) {
+        this.versionToken = versionToken;
+    }
 }
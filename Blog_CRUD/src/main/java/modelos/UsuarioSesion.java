@@ -0,0 +1,58 @@
+package modelos;
+
+import java.io.Serializable;
+
+/**
+ * Datos del usuario autenticado que se guardan en la sesión HTTP ("usuario").
+ * Es una copia pequeña e inmutable de la entidad User: no contiene la contraseña,
+ * la foto ni colecciones LAZY, así que cada sesión ocupa unos pocos bytes.
+ * Para modificar el usuario se carga la entidad por id y se reemplaza este objeto con desde().
+ */
+public final class UsuarioSesion implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Long id;
+    private final String username;
+    private final String nombre;
+    private final boolean admin;
+    private final boolean autor;
+    private final String fotoHash;
+
+    public UsuarioSesion(Long id, String username, String nombre, boolean admin, boolean autor, String fotoHash) {
+        this.id = id;
+        this.username = username;
+        this.nombre = nombre;
+        this.admin = admin;
+        this.autor = autor;
+        this.fotoHash = fotoHash;
+    }
+
+    public static UsuarioSesion desde(User usuario) {
+        return new UsuarioSesion(usuario.getId(), usuario.getUsername(), usuario.getNombre(),
+                usuario.isAdmin(), usuario.isAutor(), usuario.getFotoHash());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    public boolean isAutor() {
+        return autor;
+    }
+
+    public String getFotoHash() {
+        return fotoHash;
+    }
+}
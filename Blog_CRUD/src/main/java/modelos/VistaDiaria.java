@@ -0,0 +1,65 @@
+package modelos;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * Vistas de un artículo en un día. Las escribe servicios.ContadorVistas al volcar los contadores
+ * y las lee al arrancar para rearmar la ventana de "Más leídos esta semana".
+ *
+ * Sin clave foránea a Articulo a propósito: eliminar un artículo no tiene que tocar esta tabla.
+ * Las filas viejas o de artículos eliminados se purgan periódicamente.
+ */
+@Entity
+@IdClass(VistaDiaria.Clave.class)
+@Table(indexes = @Index(name = "idx_vista_diaria_dia", columnList = "dia"))
+public class VistaDiaria {
+
+    @Id
+    @Column(name = "articulo_id")
+    private Long articuloId;
+
+    @Id
+    @Temporal(TemporalType.DATE)
+    private Date dia;
+
+    @Column(nullable = false)
+    private long vistas;
+
+    public Long getArticuloId() {
+        return articuloId;
+    }
+
+    public Date getDia() {
+        return dia;
+    }
+
+    public long getVistas() {
+        return vistas;
+    }
+
+    public static class Clave implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Long articuloId;
+        private Date dia;
+
+        public Clave() {
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Clave)) return false;
+            Clave otra = (Clave) o;
+            return Objects.equals(articuloId, otra.articuloId) && Objects.equals(dia, otra.dia);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(articuloId, dia);
+        }
+    }
+}
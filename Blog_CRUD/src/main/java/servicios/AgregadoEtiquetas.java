@@ -0,0 +1,259 @@
+package servicios;
+
+import app.java.DataSourceConfig;
+import app.java.DatabaseUtil;
+import app.java.Planificador;
+import modelos.Etiqueta;
+import modelos.EtiquetaResumen;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TemporalType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Número de artículos por etiqueta, mantenido en memoria: da la nube de etiquetas de la barra
+ * lateral de /index y el total del listado filtrado (para el número de páginas) sin consultas.
+ *
+ * Se reconstruye desde articulo_etiqueta al arrancar y cada ETIQUETAS_RECONSTRUIR_MIN minutos
+ * (30; cubre cambios hechos fuera de la aplicación), y se actualiza después de cada commit que
+ * crea o elimina artículos o cambia sus etiquetas (BlogController, TagController).
+ *
+ * Además del total, cada etiqueta tiene una actividad que sube 1 cada vez que se usa en un
+ * artículo y se reduce a la mitad cada ETIQUETAS_VIDA_MEDIA_DIAS días (7): en la nube pesan
+ * tanto las etiquetas con muchos artículos como las usadas hace poco.
+ */
+public class AgregadoEtiquetas {
+
+    private static final int NIVELES = 5;
+    private static final double LAMBDA = Math.log(2)
+            / (Math.max(1, DataSourceConfig.getLong("ETIQUETAS_VIDA_MEDIA_DIAS", 7)) * 86_400_000.0);
+    // Al reconstruir solo se leen las fechas recientes: más atrás la actividad ya es < 0.5%
+    private static final int VIDAS_MEDIAS_LEIDAS = 8;
+    // Cuánto vale una unidad de actividad frente a un artículo en el peso de la nube
+    private static final double PESO_ACTIVIDAD = 2.0;
+    private static final int MAX_INTENTOS = 3;
+
+    private static final class Entrada {
+        final long id;
+        final String nombre;
+        volatile int articulos;
+        // Actividad al momento 'referencia'; se decae al leerla
+        double actividad;
+        long referencia;
+
+        Entrada(long id, String nombre) {
+            this.id = id;
+            this.nombre = nombre;
+        }
+
+        double actividad(long ahora) {
+            return actividad * Math.exp(-LAMBDA * (ahora - referencia));
+        }
+
+        void sumarActividad(double valor, long momento) {
+            actividad = actividad(momento) + valor;
+            referencia = momento;
+        }
+    }
+
+    // Las escrituras se hacen con el lock de la clase; los conteos se leen sin lock
+    private static volatile Map<Long, Entrada> entradas = new ConcurrentHashMap<>();
+    private static volatile long totalArticulos;
+    // Se incrementa en cada cambio: una reconstrucción que se cruzó con uno se repite
+    private static final AtomicLong version = new AtomicLong();
+    // Nube ya calculada; null después de un cambio
+    private static volatile List<EtiquetaResumen> nube;
+
+    private static final LongAdder reconstrucciones = new LongAdder();
+    private static volatile long ultimaReconstruccionMs;
+
+    /**
+     * Total de artículos, o de artículos con esa etiqueta.
+     */
+    public static long contarArticulos(Long etiquetaId) {
+        if (etiquetaId == null) return totalArticulos;
+        Entrada entrada = entradas.get(etiquetaId);
+        return entrada != null ? entrada.articulos : 0;
+    }
+
+    /**
+     * Etiquetas con al menos un artículo, en orden alfabético, con su total y un nivel de 1 a
+     * NIVELES para el tamaño en la nube (escala logarítmica sobre total + actividad reciente).
+     */
+    // Cambia con cada cambio de la nube o de los totales: forma parte del ETag de /index
+    public static long version() {
+        return version.get();
+    }
+
+    public static List<EtiquetaResumen> nube() {
+        List<EtiquetaResumen> actual = nube;
+        if (actual != null) return actual;
+        synchronized (AgregadoEtiquetas.class) {
+            if (nube == null) nube = calcularNube();
+            return nube;
+        }
+    }
+
+    private static List<EtiquetaResumen> calcularNube() {
+        long ahora = System.currentTimeMillis();
+        List<Entrada> lista = new ArrayList<>(entradas.values());
+        lista.sort((a, b) -> a.nombre.compareToIgnoreCase(b.nombre));
+
+        double[] pesos = new double[lista.size()];
+        double minimo = Double.MAX_VALUE;
+        double maximo = 0;
+        for (int i = 0; i < lista.size(); i++) {
+            pesos[i] = Math.log1p(lista.get(i).articulos + PESO_ACTIVIDAD * lista.get(i).actividad(ahora));
+            minimo = Math.min(minimo, pesos[i]);
+            maximo = Math.max(maximo, pesos[i]);
+        }
+
+        List<EtiquetaResumen> resultado = new ArrayList<>(lista.size());
+        for (int i = 0; i < lista.size(); i++) {
+            Entrada entrada = lista.get(i);
+            int nivel = maximo > minimo
+                    ? 1 + (int) Math.round((NIVELES - 1) * (pesos[i] - minimo) / (maximo - minimo))
+                    : (NIVELES + 1) / 2;
+            resultado.add(new EtiquetaResumen(entrada.id, entrada.nombre, entrada.articulos, nivel));
+        }
+        return Collections.unmodifiableList(resultado);
+    }
+
+    // ---- Actualización incremental (llamar después del commit) ----
+
+    public static synchronized void articuloCreado(Collection<Etiqueta> etiquetas) {
+        totalArticulos++;
+        long ahora = System.currentTimeMillis();
+        for (Etiqueta etiqueta : etiquetas) {
+            sumar(etiqueta, ahora);
+        }
+        cambio();
+    }
+
+    public static synchronized void articuloEliminado(Collection<Etiqueta> etiquetas) {
+        totalArticulos = Math.max(0, totalArticulos - 1);
+        for (Etiqueta etiqueta : etiquetas) {
+            restar(etiqueta.getId());
+        }
+        cambio();
+    }
+
+    public static synchronized void etiquetaAgregada(Etiqueta etiqueta) {
+        sumar(etiqueta, System.currentTimeMillis());
+        cambio();
+    }
+
+    public static synchronized void etiquetaQuitada(long etiquetaId) {
+        restar(etiquetaId);
+        cambio();
+    }
+
+    private static void sumar(Etiqueta etiqueta, long ahora) {
+        Entrada entrada = entradas.computeIfAbsent(etiqueta.getId(), id -> new Entrada(id, etiqueta.getEtiqueta()));
+        entrada.articulos++;
+        entrada.sumarActividad(1, ahora);
+    }
+
+    // Una etiqueta sin artículos sale del agregado (BlogController y TagController la eliminan)
+    private static void restar(long etiquetaId) {
+        Entrada entrada = entradas.get(etiquetaId);
+        if (entrada == null) return;
+        if (entrada.articulos <= 1) {
+            entradas.remove(etiquetaId);
+        } else {
+            entrada.articulos--;
+        }
+    }
+
+    private static void cambio() {
+        version.incrementAndGet();
+        nube = null;
+    }
+
+    // ---- Reconstrucción desde la base de datos ----
+
+    /**
+     * Reconstruye al arrancar y luego cada ETIQUETAS_RECONSTRUIR_MIN minutos (0 = solo al arrancar).
+     */
+    public static void programarReconstruccion() {
+        reconstruir();
+        long minutos = DataSourceConfig.getLong("ETIQUETAS_RECONSTRUIR_MIN", 30);
+        if (minutos > 0) {
+            Planificador.cadaCierto("reconstrucción de etiquetas", AgregadoEtiquetas::reconstruir, minutos, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Vuelve a leer los totales (tres consultas agrupadas) y reemplaza el agregado. Si mientras
+     * tanto hubo un cambio incremental se repite, para no perderlo.
+     */
+    public static void reconstruir() {
+        long inicio = System.currentTimeMillis();
+        for (int intento = 1; ; intento++) {
+            long versionInicial = version.get();
+            long ahora = System.currentTimeMillis();
+            Map<Long, Entrada> nuevas = new HashMap<>();
+            long total;
+
+            EntityManager em = DatabaseUtil.getEntityManager();
+            try {
+                total = em.createQuery("SELECT COUNT(a) FROM Articulo a", Long.class).getSingleResult();
+                for (Object[] fila : em.createQuery(
+                                "SELECT e.id, e.etiqueta, COUNT(a) FROM Etiqueta e JOIN e.articulos a " +
+                                "GROUP BY e.id, e.etiqueta", Object[].class)
+                        .getResultList()) {
+                    Entrada entrada = new Entrada((Long) fila[0], (String) fila[1]);
+                    entrada.articulos = ((Long) fila[2]).intValue();
+                    entrada.referencia = ahora;
+                    nuevas.put(entrada.id, entrada);
+                }
+                // La actividad se aproxima con la fecha de los artículos recientes de cada etiqueta
+                Date desde = new Date(ahora - (long) (VIDAS_MEDIAS_LEIDAS * Math.log(2) / LAMBDA));
+                for (Object[] fila : em.createQuery(
+                                "SELECT e.id, a.fecha FROM Etiqueta e JOIN e.articulos a WHERE a.fecha >= :desde",
+                                Object[].class)
+                        .setParameter("desde", desde, TemporalType.TIMESTAMP)
+                        .getResultList()) {
+                    Entrada entrada = nuevas.get((Long) fila[0]);
+                    Date fecha = (Date) fila[1];
+                    if (entrada != null && fecha != null) {
+                        entrada.actividad += Math.exp(-LAMBDA * Math.max(0, ahora - fecha.getTime()));
+                    }
+                }
+            } finally {
+                em.close();
+            }
+
+            synchronized (AgregadoEtiquetas.class) {
+                if (version.get() == versionInicial || intento == MAX_INTENTOS) {
+                    entradas = new ConcurrentHashMap<>(nuevas);
+                    totalArticulos = total;
+                    cambio();
+                    break;
+                }
+            }
+        }
+        reconstrucciones.increment();
+        ultimaReconstruccionMs = System.currentTimeMillis() - inicio;
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("etiquetas", entradas.size());
+        stats.put("totalArticulos", totalArticulos);
+        stats.put("reconstrucciones", reconstrucciones.sum());
+        stats.put("ultimaReconstruccionMs", ultimaReconstruccionMs);
+        return stats;
+    }
+}
@@ -0,0 +1,79 @@
+package servicios;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Convierte texto en español en términos para el índice de búsqueda: pasa a minúsculas, quita
+ * acentos y diéresis (también la tilde de la ñ), separa por cualquier carácter que no sea letra
+ * o número, descarta palabras vacías y aplica un stemmer ligero (plurales y género), el mismo
+ * enfoque que el SpanishLightStemmer de Lucene. Así "artículos", "Articulo" y "artículo" dan
+ * el mismo término.
+ */
+public final class AnalizadorEspanol {
+
+    private static final int LARGO_MIN = 2;
+    private static final int LARGO_MAX = 40;
+
+    // Palabras muy frecuentes que no aportan a la búsqueda (ya sin acentos)
+    private static final Set<String> VACIAS = Set.of(
+            "a", "al", "algo", "algunas", "algunos", "ante", "antes", "como", "con", "contra",
+            "cual", "cuando", "de", "del", "desde", "donde", "durante", "e", "el", "ella", "ellas",
+            "ellos", "en", "entre", "era", "es", "esa", "esas", "ese", "eso", "esos", "esta",
+            "estaba", "estan", "estas", "este", "esto", "estos", "fue", "ha", "han", "hasta", "hay",
+            "la", "las", "le", "les", "lo", "los", "mas", "me", "mi", "mis", "mucho", "muy", "nada",
+            "ni", "no", "nos", "o", "otra", "otro", "para", "pero", "poco", "por", "porque", "que",
+            "quien", "se", "sea", "ser", "si", "sin", "sobre", "son", "su", "sus", "tambien", "te",
+            "tiene", "todo", "todos", "tu", "tus", "un", "una", "uno", "unos", "y", "ya", "yo");
+
+    private AnalizadorEspanol() {}
+
+    /**
+     * Términos del texto en orden de aparición (con repeticiones, para contar frecuencias).
+     */
+    public static List<String> analizar(String texto) {
+        List<String> terminos = new ArrayList<>();
+        if (texto == null || texto.isEmpty()) return terminos;
+
+        String plano = Normalizer.normalize(texto, Normalizer.Form.NFD);
+        StringBuilder palabra = new StringBuilder();
+        for (int i = 0; i <= plano.length(); i++) {
+            char c = i < plano.length() ? plano.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (Character.isLetterOrDigit(c)) {
+                palabra.append(Character.toLowerCase(c));
+            } else if (palabra.length() > 0) {
+                agregar(terminos, palabra.toString());
+                palabra.setLength(0);
+            }
+        }
+        return terminos;
+    }
+
+    private static void agregar(List<String> terminos, String palabra) {
+        if (palabra.length() < LARGO_MIN || palabra.length() > LARGO_MAX || VACIAS.contains(palabra)) return;
+        terminos.add(raiz(palabra));
+    }
+
+    // Stemmer ligero de Savoy: solo plurales y terminaciones de género, en palabras de 5+ letras
+    static String raiz(String palabra) {
+        int largo = palabra.length();
+        if (largo < 5 || !Character.isLetter(palabra.charAt(largo - 1))) return palabra;
+        switch (palabra.charAt(largo - 1)) {
+            case 'o':
+            case 'a':
+            case 'e':
+                return palabra.substring(0, largo - 1);
+            case 's':
+                if (palabra.endsWith("eses")) return palabra.substring(0, largo - 2);
+                if (palabra.endsWith("ces")) return palabra.substring(0, largo - 3) + "z";
+                char anterior = palabra.charAt(largo - 2);
+                if (anterior == 'o' || anterior == 'a' || anterior == 'e') return palabra.substring(0, largo - 2);
+                return palabra;
+            default:
+                return palabra;
+        }
+    }
+}
@@ -1,15 +1,142 @@
 package servicios;
 
 import modelos.Articulo;
+import modelos.ArticuloResumen;
 import modelos.Etiqueta;
 import modelos.User;
+import app.java.DataSourceConfig;
 import app.java.DatabaseUtil;
+import app.java.Planificador;
+import org.hibernate.query.NativeQuery;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class ArticuloServicios {
 
+    private static final int LOTE_EXTRACTOS = 100;
+
+    // Recalcula los contadores que no coinciden con las tablas hijas
+    private static final String REPARAR_CONTADORES =
+            "UPDATE Articulo SET " +
+            "totalComentarios = (SELECT COUNT(*) FROM Comentario c WHERE c.articulo_id = Articulo.id), " +
+            "totalEtiquetas = (SELECT COUNT(*) FROM articulo_etiqueta ae WHERE ae.articulo_id = Articulo.id) " +
+            "WHERE (totalComentarios <> (SELECT COUNT(*) FROM Comentario c WHERE c.articulo_id = Articulo.id) " +
+            "   OR totalEtiquetas <> (SELECT COUNT(*) FROM articulo_etiqueta ae WHERE ae.articulo_id = Articulo.id))";
+
+    /**
+     * Artículos de un autor (o de todos si autorId es null) para mis-articulos, del más nuevo al
+     * más viejo. Es una proyección: no lee el cuerpo ni inicializa comentarios o etiquetas.
+     */
+    public static List<ArticuloResumen> listarResumenes(EntityManager em, Long autorId) {
+        TypedQuery<ArticuloResumen> query = em.createQuery(
+                "SELECT new modelos.ArticuloResumen(a.id, a.titulo, a.extracto, a.extractoTruncado, a.fecha, au.nombre, a.totalComentarios) " +
+                "FROM Articulo a LEFT JOIN a.autor au" +
+                (autorId != null ? " WHERE au.id = :autorId" : "") +
+                " ORDER BY a.fecha DESC, a.id DESC", ArticuloResumen.class);
+        if (autorId != null) query.setParameter("autorId", autorId);
+        return query.getResultList();
+    }
+
+    /**
+     * Calcula el extracto de los artículos creados antes de existir la columna. Se ejecuta al
+     * arrancar, de a LOTE_EXTRACTOS artículos por transacción; cuando no queda ninguno es una
+     * sola consulta indexada por la clave primaria.
+     */
+    public static void completarExtractos() {
+        int completados = 0;
+        while (true) {
+            EntityManager em = DatabaseUtil.getEntityManager();
+            try {
+                em.getTransaction().begin();
+                List<Articulo> pendientes = em.createQuery(
+                                "SELECT a FROM Articulo a WHERE a.extracto IS NULL ORDER BY a.id", Articulo.class)
+                        .setMaxResults(LOTE_EXTRACTOS)
+                        .getResultList();
+                for (Articulo articulo : pendientes) {
+                    articulo.setCuerpo(articulo.getCuerpo());
+                }
+                em.getTransaction().commit();
+                completados += pendientes.size();
+                if (pendientes.size() < LOTE_EXTRACTOS) break;
+            } catch (RuntimeException e) {
+                if (em.getTransaction().isActive()) em.getTransaction().rollback();
+                throw e;
+            } finally {
+                em.close();
+            }
+        }
+        if (completados > 0) {
+            System.out.println("Extractos calculados para " + completados + " artículo(s)");
+        }
+    }
+
+    /**
+     * Suma (o resta) comentarios al contador del artículo con un UPDATE atómico, dentro de la
+     * transacción activa de em. Llamarlo junto al persist/remove del comentario.
+     */
+    public static void sumarComentarios(EntityManager em, long articuloId, int cantidad) {
+        em.createQuery("UPDATE Articulo a SET a.totalComentarios = a.totalComentarios + :cantidad WHERE a.id = :id")
+                .setParameter("cantidad", cantidad)
+                .setParameter("id", articuloId)
+                .executeUpdate();
+    }
+
+    // Igual que sumarComentarios, para las etiquetas asociadas
+    public static void sumarEtiquetas(EntityManager em, long articuloId, int cantidad) {
+        em.createQuery("UPDATE Articulo a SET a.totalEtiquetas = a.totalEtiquetas + :cantidad WHERE a.id = :id")
+                .setParameter("cantidad", cantidad)
+                .setParameter("id", articuloId)
+                .executeUpdate();
+    }
+
+    /**
+     * Corrige los contadores de los artículos indicados (o de todos si ids es null) a partir de
+     * las tablas de comentarios y etiquetas, dentro de la transacción activa de em.
+     * @return cuántos artículos tenían un contador incorrecto
+     */
+    public static int repararContadores(EntityManager em, Collection<Long> ids) {
+        if (ids != null && ids.isEmpty()) return 0;
+        Query query = em.createNativeQuery(ids == null ? REPARAR_CONTADORES : REPARAR_CONTADORES + " AND id IN (:ids)");
+        if (ids != null) query.setParameter("ids", ids);
+        // Solo afecta a Articulo: sin esto Hibernate vaciaría toda la caché de segundo nivel
+        query.unwrap(NativeQuery.class).addSynchronizedEntityClass(Articulo.class);
+        return query.executeUpdate();
+    }
+
+    /**
+     * Repara los contadores al arrancar y luego cada CONTADORES_REPARAR_MIN minutos (60; 0 solo
+     * al arrancar). Deberían cuadrar siempre; esto cubre cambios hechos fuera de la aplicación.
+     */
+    public static void programarReparacionContadores() {
+        repararTodos();
+        long minutos = DataSourceConfig.getLong("CONTADORES_REPARAR_MIN", 60);
+        if (minutos > 0) {
+            Planificador.cadaCierto("reparación de contadores", ArticuloServicios::repararTodos, minutos, TimeUnit.MINUTES);
+        }
+    }
+
+    private static void repararTodos() {
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            int reparados = repararContadores(em, null);
+            em.getTransaction().commit();
+            if (reparados > 0) {
+                System.out.println("Contadores de comentarios/etiquetas corregidos en " + reparados + " artículo(s)");
+            }
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
     public boolean agregarArticulo(String titulo, String cuerpo, User autor, List<Etiqueta> etiquetas) {
         if (titulo == null || titulo.trim().isEmpty() || cuerpo == null || cuerpo.trim().isEmpty()) {
             return false;
@@ -0,0 +1,466 @@
+package servicios;
+
+import app.java.DataSourceConfig;
+import app.java.DatabaseUtil;
+import modelos.ArticuloRelacionado;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Artículos relacionados para /articulo/{id}: los RELACIONADOS_K (5) artículos con mayor
+ * similitud de Jaccard entre sus etiquetas (etiquetas en común / etiquetas entre los dos).
+ *
+ * Un hilo propio mantiene en memoria las etiquetas de cada artículo, los artículos de cada
+ * etiqueta y la lista de vecinos ya calculada de cada artículo, todo en tablas con clave long
+ * (TablaLong). Al renderizar la página solo se busca la lista en una tabla.
+ *
+ * Se construye completo al arrancar y cada RELACIONADOS_RECONSTRUIR_MIN minutos (60). Entre
+ * tanto BlogController y TagController marcan los artículos que cambian con marcarCambio() y
+ * el hilo recalcula, cada pocos segundos, ese artículo y los que comparten etiquetas con él.
+ * Las etiquetas con más de RELACIONADOS_ETIQUETA_MAX artículos (1000) no generan candidatos:
+ * relacionarían entre sí a medio blog y harían caro cada recálculo.
+ */
+public class ArticulosRelacionados {
+
+    private static final int K = Math.max(1, DataSourceConfig.getInt("RELACIONADOS_K", 5));
+    private static final int ETIQUETA_MAX = Math.max(1, DataSourceConfig.getInt("RELACIONADOS_ETIQUETA_MAX", 1000));
+    private static final int LOTE = 500;
+
+    private static final long[] VACIO = new long[0];
+
+    // Vecinos de un artículo, del más al menos parecido (con el título para no buscarlo al renderizar)
+    private static final class Vecinos {
+        final long[] ids;
+        final float[] similitud;
+        final String[] titulos;
+
+        Vecinos(long[] ids, float[] similitud, String[] titulos) {
+            this.ids = ids;
+            this.similitud = similitud;
+            this.titulos = titulos;
+        }
+
+        boolean contiene(long id) {
+            for (long vecino : ids) {
+                if (vecino == id) return true;
+            }
+            return false;
+        }
+    }
+
+    // Solo las usa el hilo de cálculo: etiquetas (ordenadas) por artículo, artículos (ordenados)
+    // por etiqueta y títulos
+    private static TablaLong<long[]> etiquetasPorArticulo = new TablaLong<>();
+    private static TablaLong<long[]> articulosPorEtiqueta = new TablaLong<>();
+    private static TablaLong<String> titulos = new TablaLong<>();
+
+    // Lo que leen las páginas, con el lock de lectura
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static TablaLong<Vecinos> vecinos = new TablaLong<>();
+
+    private static final Set<Long> pendientes = ConcurrentHashMap.newKeySet();
+    private static volatile boolean reconstruir = true;
+
+    private static final ScheduledExecutorService hilo = crearHilo();
+
+    private static final LongAdder recalculados = new LongAdder();
+    private static final LongAdder reconstrucciones = new LongAdder();
+    private static volatile long ultimaReconstruccionMs;
+
+    private static ScheduledExecutorService crearHilo() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread hilo = new Thread(r, "articulos-relacionados");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Programa la construcción inicial (en segundo plano) y el mantenimiento.
+     */
+    public static void iniciar() {
+        hilo.scheduleWithFixedDelay(() -> {
+            try {
+                procesar();
+            } catch (Throwable t) {
+                System.err.println("Error al calcular artículos relacionados: " + t.getMessage());
+            }
+        }, 0, 5, TimeUnit.SECONDS);
+        long minutos = DataSourceConfig.getLong("RELACIONADOS_RECONSTRUIR_MIN", 60);
+        if (minutos > 0) {
+            hilo.scheduleWithFixedDelay(() -> reconstruir = true, minutos, minutos, TimeUnit.MINUTES);
+        }
+    }
+
+    // Cambiaron las etiquetas o el título del artículo, o se creó o eliminó
+    public static void marcarCambio(long articuloId) {
+        pendientes.add(articuloId);
+    }
+
+    // Cambios masivos (por ejemplo, al eliminar un usuario con sus artículos)
+    public static void programarReconstruccion() {
+        reconstruir = true;
+    }
+
+    /**
+     * Huella de los relacionados de un artículo (ids y títulos); cambia cuando cambia el panel
+     * y forma parte del ETag de /articulo/{id}. 0 si no hay.
+     */
+    public static int huella(long articuloId) {
+        Vecinos lista;
+        lock.readLock().lock();
+        try {
+            lista = vecinos.get(articuloId);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (lista == null) return 0;
+        return 31 * Arrays.hashCode(lista.ids) + Arrays.hashCode(lista.titulos);
+    }
+
+    /**
+     * Artículos relacionados ya calculados; vacío si no hay o aún no se calcularon.
+     */
+    public static List<ArticuloRelacionado> relacionados(long articuloId) {
+        Vecinos lista;
+        lock.readLock().lock();
+        try {
+            lista = vecinos.get(articuloId);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (lista == null) return Collections.emptyList();
+        List<ArticuloRelacionado> resultado = new ArrayList<>(lista.ids.length);
+        for (int i = 0; i < lista.ids.length; i++) {
+            resultado.add(new ArticuloRelacionado(lista.ids[i], lista.titulos[i], lista.similitud[i]));
+        }
+        return resultado;
+    }
+
+    // ---- Cálculo (solo en el hilo propio) ----
+
+    private static void procesar() {
+        if (reconstruir) {
+            reconstruir = false;
+            pendientes.clear();
+            reconstruirTodo();
+            return;
+        }
+        while (!pendientes.isEmpty()) {
+            List<Long> lote = new ArrayList<>(LOTE);
+            Iterator<Long> it = pendientes.iterator();
+            while (it.hasNext() && lote.size() < LOTE) {
+                lote.add(it.next());
+                it.remove();
+            }
+            actualizar(lote);
+        }
+    }
+
+    private static void reconstruirTodo() {
+        long inicio = System.currentTimeMillis();
+        TablaLong<long[]> etiquetas = new TablaLong<>();
+        TablaLong<String> nuevosTitulos = new TablaLong<>();
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            for (Object[] fila : em.createQuery("SELECT a.id, a.titulo FROM Articulo a", Object[].class).getResultList()) {
+                nuevosTitulos.put((Long) fila[0], (String) fila[1]);
+                etiquetas.put((Long) fila[0], VACIO);
+            }
+            cargarEtiquetas(em, null, etiquetas);
+        } finally {
+            em.close();
+        }
+
+        etiquetasPorArticulo = etiquetas;
+        articulosPorEtiqueta = invertir(etiquetas);
+        titulos = nuevosTitulos;
+
+        TablaLong<Vecinos> nuevos = new TablaLong<>();
+        etiquetas.paraCadaClave(articulo -> {
+            Vecinos lista = calcular(articulo);
+            if (lista != null) nuevos.put(articulo, lista);
+        });
+        lock.writeLock().lock();
+        try {
+            vecinos = nuevos;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        reconstrucciones.increment();
+        ultimaReconstruccionMs = System.currentTimeMillis() - inicio;
+    }
+
+    // Recarga los artículos del lote y recalcula ellos y los que comparten (o compartían) etiquetas
+    private static void actualizar(List<Long> ids) {
+        TablaLong<long[]> nuevas = new TablaLong<>();
+        TablaLong<String> nuevosTitulos = new TablaLong<>();
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            for (Object[] fila : em.createQuery("SELECT a.id, a.titulo FROM Articulo a WHERE a.id IN :ids", Object[].class)
+                    .setParameter("ids", ids)
+                    .getResultList()) {
+                nuevosTitulos.put((Long) fila[0], (String) fila[1]);
+                nuevas.put((Long) fila[0], VACIO);
+            }
+            cargarEtiquetas(em, ids, nuevas);
+        } finally {
+            em.close();
+        }
+
+        Set<Long> afectados = new HashSet<>();
+        for (long id : ids) {
+            long[] anteriores = etiquetasPorArticulo.get(id);
+            long[] actuales = nuevas.get(id);
+            if (anteriores != null) {
+                for (long etiqueta : anteriores) {
+                    agregarArticulos(afectados, etiqueta);
+                    quitarDePostings(etiqueta, id);
+                }
+            }
+            if (actuales == null) {
+                etiquetasPorArticulo.remove(id);
+                titulos.remove(id);
+                continue;
+            }
+            etiquetasPorArticulo.put(id, actuales);
+            titulos.put(id, nuevosTitulos.get(id));
+            for (long etiqueta : actuales) {
+                long[] lista = articulosPorEtiqueta.get(etiqueta);
+                articulosPorEtiqueta.put(etiqueta, insertar(lista != null ? lista : VACIO, id));
+                agregarArticulos(afectados, etiqueta);
+            }
+        }
+
+        // Un artículo vecino se recalcula si tenía en su lista a uno de los cambiados, o si alguno
+        // de ellos ahora le resulta más parecido que el último de su lista
+        Set<Long> cambiados = new HashSet<>(ids);
+        List<Long> recalcular = new ArrayList<>(ids);
+        lock.readLock().lock();
+        try {
+            for (Long afectado : afectados) {
+                if (cambiados.contains(afectado)) continue;
+                if (debeRecalcularse(afectado, vecinos.get(afectado), ids)) recalcular.add(afectado);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Vecinos> resultados = new ArrayList<>(recalcular.size());
+        for (Long id : recalcular) {
+            resultados.add(etiquetasPorArticulo.get(id) != null ? calcular(id) : null);
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < recalcular.size(); i++) {
+                if (resultados.get(i) != null) {
+                    vecinos.put(recalcular.get(i), resultados.get(i));
+                } else {
+                    vecinos.remove(recalcular.get(i));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        recalculados.add(recalcular.size());
+    }
+
+    private static boolean debeRecalcularse(long articulo, Vecinos actuales, List<Long> cambiados) {
+        if (actuales == null) return true;
+        long[] etiquetas = etiquetasPorArticulo.get(articulo);
+        for (long cambiado : cambiados) {
+            if (actuales.contiene(cambiado)) return true;
+            long[] otras = etiquetasPorArticulo.get(cambiado);
+            if (otras == null) continue;
+            float similitud = jaccard(etiquetas, otras);
+            if (similitud > 0 && (actuales.ids.length < K || similitud >= actuales.similitud[actuales.ids.length - 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Las etiquetas de los artículos (todos si ids es null), ordenadas por id
+    private static void cargarEtiquetas(EntityManager em, List<Long> ids, TablaLong<long[]> destino) {
+        String jpql = "SELECT a.id, e.id FROM Articulo a JOIN a.etiquetas e"
+                + (ids != null ? " WHERE a.id IN :ids" : "") + " ORDER BY a.id, e.id";
+        TypedQuery<Object[]> query = em.createQuery(jpql, Object[].class);
+        if (ids != null) query.setParameter("ids", ids);
+        long actual = 0;
+        long[] buffer = new long[8];
+        int cantidad = 0;
+        for (Object[] fila : query.getResultList()) {
+            long articulo = (Long) fila[0];
+            if (articulo != actual) {
+                if (cantidad > 0) destino.put(actual, Arrays.copyOf(buffer, cantidad));
+                actual = articulo;
+                cantidad = 0;
+            }
+            if (cantidad == buffer.length) buffer = Arrays.copyOf(buffer, cantidad * 2);
+            buffer[cantidad++] = (Long) fila[1];
+        }
+        if (cantidad > 0) destino.put(actual, Arrays.copyOf(buffer, cantidad));
+    }
+
+    /**
+     * Los K artículos más parecidos: cuenta las etiquetas en común con cada artículo que comparte
+     * alguna (recorriendo los artículos de cada etiqueta) y se queda con los de mayor Jaccard.
+     */
+    private static Vecinos calcular(long articulo) {
+        long[] etiquetas = etiquetasPorArticulo.get(articulo);
+        if (etiquetas == null || etiquetas.length == 0) return null;
+
+        TablaLong<int[]> comunes = new TablaLong<>();
+        for (long etiqueta : etiquetas) {
+            long[] lista = articulosPorEtiqueta.get(etiqueta);
+            if (lista == null || lista.length > ETIQUETA_MAX) continue;
+            for (long otro : lista) {
+                if (otro == articulo) continue;
+                int[] contador = comunes.get(otro);
+                if (contador == null) {
+                    comunes.put(otro, new int[]{1});
+                } else {
+                    contador[0]++;
+                }
+            }
+        }
+        if (comunes.tamano() == 0) return null;
+
+        long[] ids = new long[K];
+        float[] similitud = new float[K];
+        int[] cantidad = {0};
+        comunes.paraCadaClave(otro -> {
+            int enComun = comunes.get(otro)[0];
+            float valor = (float) enComun / (etiquetas.length + etiquetasPorArticulo.get(otro).length - enComun);
+            // Inserción ordenada (similitud desc, y a igual similitud el más nuevo)
+            int n = cantidad[0];
+            int posicion = n;
+            while (posicion > 0 && (valor > similitud[posicion - 1]
+                    || (valor == similitud[posicion - 1] && otro > ids[posicion - 1]))) {
+                posicion--;
+            }
+            if (posicion >= K) return;
+            int hasta = Math.min(n, K - 1);
+            System.arraycopy(ids, posicion, ids, posicion + 1, hasta - posicion);
+            System.arraycopy(similitud, posicion, similitud, posicion + 1, hasta - posicion);
+            ids[posicion] = otro;
+            similitud[posicion] = valor;
+            cantidad[0] = Math.min(n + 1, K);
+        });
+
+        int n = cantidad[0];
+        String[] nombres = new String[n];
+        for (int i = 0; i < n; i++) {
+            nombres[i] = titulos.get(ids[i]);
+        }
+        return new Vecinos(Arrays.copyOf(ids, n), Arrays.copyOf(similitud, n), nombres);
+    }
+
+    // Artículos de cada etiqueta: se cuentan, se reservan los arreglos justos y se ordenan
+    private static TablaLong<long[]> invertir(TablaLong<long[]> etiquetas) {
+        TablaLong<int[]> cantidades = new TablaLong<>();
+        etiquetas.paraCadaClave(articulo -> {
+            for (long etiqueta : etiquetas.get(articulo)) {
+                int[] cantidad = cantidades.get(etiqueta);
+                if (cantidad == null) {
+                    cantidades.put(etiqueta, new int[]{1, 0});
+                } else {
+                    cantidad[0]++;
+                }
+            }
+        });
+        TablaLong<long[]> postings = new TablaLong<>();
+        cantidades.paraCadaClave(etiqueta -> postings.put(etiqueta, new long[cantidades.get(etiqueta)[0]]));
+        etiquetas.paraCadaClave(articulo -> {
+            for (long etiqueta : etiquetas.get(articulo)) {
+                postings.get(etiqueta)[cantidades.get(etiqueta)[1]++] = articulo;
+            }
+        });
+        postings.paraCadaClave(etiqueta -> Arrays.sort(postings.get(etiqueta)));
+        return postings;
+    }
+
+    private static float jaccard(long[] a, long[] b) {
+        int i = 0, j = 0, enComun = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                enComun++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return enComun == 0 ? 0 : (float) enComun / (a.length + b.length - enComun);
+    }
+
+    private static void agregarArticulos(Set<Long> destino, long etiqueta) {
+        long[] lista = articulosPorEtiqueta.get(etiqueta);
+        if (lista == null || lista.length > ETIQUETA_MAX) return;
+        for (long articulo : lista) {
+            destino.add(articulo);
+        }
+    }
+
+    private static void quitarDePostings(long etiqueta, long articulo) {
+        long[] lista = articulosPorEtiqueta.get(etiqueta);
+        if (lista == null) return;
+        int posicion = Arrays.binarySearch(lista, articulo);
+        if (posicion < 0) return;
+        if (lista.length == 1) {
+            articulosPorEtiqueta.remove(etiqueta);
+            return;
+        }
+        long[] nueva = new long[lista.length - 1];
+        System.arraycopy(lista, 0, nueva, 0, posicion);
+        System.arraycopy(lista, posicion + 1, nueva, posicion, lista.length - posicion - 1);
+        articulosPorEtiqueta.put(etiqueta, nueva);
+    }
+
+    // Copia ordenada con el id agregado (sin duplicarlo)
+    private static long[] insertar(long[] lista, long id) {
+        int posicion = Arrays.binarySearch(lista, id);
+        if (posicion >= 0) return lista;
+        posicion = -posicion - 1;
+        long[] nueva = new long[lista.length + 1];
+        System.arraycopy(lista, 0, nueva, 0, posicion);
+        nueva[posicion] = id;
+        System.arraycopy(lista, posicion, nueva, posicion + 1, lista.length - posicion);
+        return nueva;
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("articulosConRelacionados", vecinos.tamano());
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.put("pendientes", pendientes.size());
+        stats.put("recalculados", recalculados.sum());
+        stats.put("reconstrucciones", reconstrucciones.sum());
+        stats.put("ultimaReconstruccionMs", ultimaReconstruccionMs);
+        return stats;
+    }
+}
@@ -0,0 +1,227 @@
+package servicios;
+
+import app.java.DataSourceConfig;
+import app.java.DatabaseUtil;
+import modelos.User;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Almacén de fotos de perfil direccionado por contenido.
+ * Cada imagen se guarda una sola vez en disco con su SHA-256 como nombre
+ * (AVATAR_DIR/ab/abcdef...), junto a un archivo ".tipo" con su MIME type.
+ * Como el contenido de un hash nunca cambia, el navegador puede cachearlo para siempre.
+ *
+ * Solo se aceptan PNG, JPEG, GIF y WebP, y el tipo se toma de los primeros bytes del archivo,
+ * nunca del Content-Type que manda el navegador: un SVG (que puede traer scripts) servido desde
+ * /avatars se ejecutaría con el origen del blog.
+ */
+public class AvatarServicios {
+
+    private static final Pattern HASH_VALIDO = Pattern.compile("[0-9a-f]{64}");
+    private static final String EXTENSION_TIPO = ".tipo";
+    private static final String TIPO_POR_DEFECTO = "application/octet-stream";
+    private static final Set<String> TIPOS_PERMITIDOS = Set.of("image/png", "image/jpeg", "image/gif", "image/webp");
+    private static final int LOTE_MIGRACION = 50;
+
+    private static final Path directorio = Paths.get(
+            DataSourceConfig.get("AVATAR_DIR") != null ? DataSourceConfig.get("AVATAR_DIR") : "avatars");
+
+    // MIME type por hash, para no leer el archivo .tipo en cada petición
+    private static final Map<String, String> tipos = new ConcurrentHashMap<>();
+
+    private static volatile String hashPorDefecto;
+
+    /**
+     * MIME type según la firma del archivo; null si no es PNG, JPEG, GIF ni WebP.
+     */
+    public static String detectarTipo(byte[] contenido) {
+        if (empiezaCon(contenido, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) return "image/png";
+        if (empiezaCon(contenido, 0, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+        if (empiezaCon(contenido, 0, 'G', 'I', 'F', '8', '7', 'a')
+                || empiezaCon(contenido, 0, 'G', 'I', 'F', '8', '9', 'a')) return "image/gif";
+        if (empiezaCon(contenido, 0, 'R', 'I', 'F', 'F') && empiezaCon(contenido, 8, 'W', 'E', 'B', 'P')) return "image/webp";
+        return null;
+    }
+
+    private static boolean empiezaCon(byte[] contenido, int desde, int... firma) {
+        if (contenido == null || contenido.length < desde + firma.length) return false;
+        for (int i = 0; i < firma.length; i++) {
+            if ((contenido[desde + i] & 0xFF) != firma[i]) return false;
+        }
+        return true;
+    }
+
+    // Hash con el que se guardaría el contenido (para asignarlo antes de escribir el archivo)
+    public static String calcularHash(byte[] contenido) {
+        return sha256(contenido);
+    }
+
+    /**
+     * Guarda la imagen (si no existía ya) y devuelve su hash.
+     * La escritura es atómica: primero a un temporal y luego se mueve, así una
+     * petición concurrente nunca ve un archivo a medio escribir.
+     * @throws IllegalArgumentException si no es una imagen de un formato permitido
+     */
+    public static String guardar(byte[] contenido) throws IOException {
+        String tipo = detectarTipo(contenido);
+        if (tipo == null) {
+            throw new IllegalArgumentException("Formato de imagen no permitido");
+        }
+        String hash = sha256(contenido);
+        Path destino = rutaDe(hash);
+        if (Files.exists(destino)) {
+            return hash;
+        }
+
+        Files.createDirectories(destino.getParent());
+        // El .tipo se escribe antes que la imagen: si la imagen existe, su tipo también
+        escribirAtomico(rutaTipoDe(hash), tipo.getBytes(StandardCharsets.UTF_8));
+        escribirAtomico(destino, contenido);
+        tipos.put(hash, tipo);
+        return hash;
+    }
+
+    /**
+     * Hash de la foto por defecto (publico/default.png). Se guarda en el almacén la primera vez.
+     */
+    public static String obtenerHashPorDefecto() throws IOException {
+        String hash = hashPorDefecto;
+        if (hash != null) return hash;
+
+        try (InputStream defaultFotoStream = Thread.currentThread()
+                .getContextClassLoader()
+                .getResourceAsStream("publico/default.png")) {
+            if (defaultFotoStream == null) {
+                throw new IOException("No se encontró la imagen por defecto");
+            }
+            hash = guardar(defaultFotoStream.readAllBytes());
+        }
+        hashPorDefecto = hash;
+        return hash;
+    }
+
+    public static boolean esHashValido(String hash) {
+        return hash != null && HASH_VALIDO.matcher(hash).matches();
+    }
+
+    /**
+     * Ruta del archivo de un hash; null si el hash no es válido (evita recorrer directorios con "../").
+     */
+    public static Path obtenerArchivo(String hash) {
+        if (!esHashValido(hash)) return null;
+        Path archivo = rutaDe(hash);
+        return Files.isRegularFile(archivo) ? archivo : null;
+    }
+
+    // Los archivos guardados antes de validar la firma pueden tener otro tipo: se sirven como binarios
+    public static String obtenerTipo(String hash) {
+        return tipos.computeIfAbsent(hash, h -> {
+            try {
+                String tipo = Files.readString(rutaTipoDe(h), StandardCharsets.UTF_8).trim();
+                return TIPOS_PERMITIDOS.contains(tipo) ? tipo : TIPO_POR_DEFECTO;
+            } catch (IOException e) {
+                return TIPO_POR_DEFECTO;
+            }
+        });
+    }
+
+    /**
+     * Migración única: pasa las fotos guardadas en base64 en la tabla usuarios al almacén
+     * y deja la columna fotoBase64 en null. Procesa por lotes de LOTE_MIGRACION usuarios
+     * (cada foto se carga de una en una) y es idempotente: solo toca usuarios sin fotoHash.
+     */
+    public static void migrarFotosBase64() {
+        long ultimoId = 0;
+        int migrados = 0;
+        while (true) {
+            EntityManager em = DatabaseUtil.getEntityManager();
+            try {
+                List<Long> ids = em.createQuery(
+                                "SELECT u.id FROM User u WHERE u.fotoBase64 IS NOT NULL AND u.fotoHash IS NULL " +
+                                "AND u.id > :ultimoId ORDER BY u.id", Long.class)
+                        .setParameter("ultimoId", ultimoId)
+                        .setMaxResults(LOTE_MIGRACION)
+                        .getResultList();
+                if (ids.isEmpty()) break;
+
+                em.getTransaction().begin();
+                for (Long id : ids) {
+                    ultimoId = id;
+                    User usuario = em.find(User.class, id);
+                    try {
+                        byte[] bytes = Base64.getDecoder().decode(usuario.getFotoBase64());
+                        usuario.setFotoHash(guardar(bytes));
+                        usuario.setFotoMimeType(detectarTipo(bytes));
+                        usuario.setFotoBase64(null);
+                        migrados++;
+                    } catch (IllegalArgumentException e) {
+                        // Base64 inválido o un formato no permitido (por ejemplo, SVG)
+                        System.err.println("Foto en base64 inválida para el usuario " + id + ", se omite");
+                    }
+                    // Libera la foto ya migrada antes de cargar la siguiente
+                    em.flush();
+                    em.detach(usuario);
+                }
+                em.getTransaction().commit();
+            } catch (Exception e) {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                System.err.println("Error al migrar fotos de perfil: " + e.getMessage());
+                break;
+            } finally {
+                em.close();
+            }
+        }
+        if (migrados > 0) {
+            System.out.println("Fotos de perfil migradas al almacén de avatares: " + migrados);
+        }
+    }
+
+    private static Path rutaDe(String hash) {
+        return directorio.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static Path rutaTipoDe(String hash) {
+        return directorio.resolve(hash.substring(0, 2)).resolve(hash + EXTENSION_TIPO);
+    }
+
+    private static void escribirAtomico(Path destino, byte[] contenido) throws IOException {
+        Path temporal = Files.createTempFile(destino.getParent(), "subida", ".tmp");
+        try {
+            Files.write(temporal, contenido);
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    private static String sha256(byte[] contenido) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(contenido);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package servicios;
+
+import app.java.DataSourceConfig;
+import app.java.DatabaseUtil;
+import modelos.ResultadoBusqueda;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Búsqueda de texto completo sobre los artículos (título, cuerpo, etiquetas y comentarios),
+ * con un índice invertido propio y ranking BM25. El texto pasa por AnalizadorEspanol.
+ *
+ * El índice tiene dos partes:
+ *  - un segmento inmutable en disco (BUSQUEDA_DIR), leído con memoria mapeada: al reiniciar
+ *    se abre y solo se reindexan los artículos cuya fechaModificacion cambió;
+ *  - un delta en memoria con los artículos modificados desde que se escribió el segmento.
+ * Cuando el delta llega a BUSQUEDA_DELTA_MAX documentos (o cada 10 minutos si hay cambios)
+ * se fusiona todo en un segmento nuevo.
+ *
+ * Las escrituras (BlogController, TagController, CommentController...) solo marcan el
+ * artículo con marcarCambio(); un hilo propio lo reindexa un par de segundos después.
+ * Las consultas no tocan la base de datos.
+ */
+public class BusquedaServicios {
+
+    public static final int RESULTADOS_POR_PAGINA = 10;
+    private static final int MAX_TERMINOS_CONSULTA = 10;
+
+    private static final Path DIRECTORIO = Paths.get(DataSourceConfig.get("BUSQUEDA_DIR") != null
+            ? DataSourceConfig.get("BUSQUEDA_DIR") : "./indice-busqueda");
+    private static final boolean CON_COMENTARIOS = !"false".equalsIgnoreCase(DataSourceConfig.get("BUSQUEDA_COMENTARIOS"));
+    private static final int DELTA_MAX = Math.max(1, DataSourceConfig.getInt("BUSQUEDA_DELTA_MAX", 500));
+    private static final long COMPACTAR_CADA_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int LOTE = 200;
+
+    // Cada aparición de un término suma este peso a su frecuencia, según el campo
+    private static final int PESO_TITULO = 6;
+    private static final int PESO_ETIQUETA = 4;
+    private static final int PESO_CUERPO = 2;
+    private static final int PESO_COMENTARIO = 1;
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Las consultas toman el lock de lectura; el hilo indexador es el único que modifica el índice
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static SegmentoBusqueda base = SegmentoBusqueda.vacio();
+    private static final Map<Long, SegmentoBusqueda.Documento> delta = new HashMap<>();
+    // Artículos del segmento que ya no valen (modificados, y por lo tanto en el delta, o eliminados)
+    private static final Set<Long> reemplazados = new HashSet<>();
+    private static final BitSet ordinalesReemplazados = new BitSet();
+    private static long largoDelta;
+    private static long largoReemplazados;
+    private static long numeroSegmento;
+    private static long ultimaCompactacion = System.currentTimeMillis();
+
+    private static final Set<Long> pendientes = ConcurrentHashMap.newKeySet();
+    private static final Set<Long> autoresPendientes = ConcurrentHashMap.newKeySet();
+    private static volatile boolean reconciliar;
+
+    private static final ScheduledExecutorService indexador = crearIndexador();
+
+    private static final LongAdder consultas = new LongAdder();
+    private static final LongAdder nanosConsultas = new LongAdder();
+    private static final LongAdder indexados = new LongAdder();
+    private static final LongAdder compactaciones = new LongAdder();
+
+    public static class Resultados {
+        private final List<ResultadoBusqueda> resultados;
+        private final int total;
+        private final int pagina;
+        private final int totalPaginas;
+        private final long micros;
+
+        Resultados(List<ResultadoBusqueda> resultados, int total, int pagina, int totalPaginas, long micros) {
+            this.resultados = resultados;
+            this.total = total;
+            this.pagina = pagina;
+            this.totalPaginas = totalPaginas;
+            this.micros = micros;
+        }
+
+        public List<ResultadoBusqueda> getResultados() {
+            return resultados;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getPagina() {
+            return pagina;
+        }
+
+        public int getTotalPaginas() {
+            return totalPaginas;
+        }
+
+        // Tiempo de la consulta en microsegundos
+        public long getMicros() {
+            return micros;
+        }
+    }
+
+    private static ScheduledExecutorService crearIndexador() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread hilo = new Thread(r, "indexador-busqueda");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Abre el último segmento guardado y programa el indexador, que empieza comparando el
+     * índice con la base de datos. Se llama una vez al arrancar.
+     */
+    public static void iniciar() {
+        try {
+            Files.createDirectories(DIRECTORIO);
+            abrirUltimoSegmento();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudo abrir el índice de búsqueda (se reconstruye): " + e.getMessage());
+        }
+        reconciliar = true;
+        indexador.scheduleWithFixedDelay(() -> {
+            try {
+                procesarPendientes();
+            } catch (Throwable t) {
+                System.err.println("Error en el indexador de búsqueda: " + t.getMessage());
+            }
+        }, 0, 2, TimeUnit.SECONDS);
+    }
+
+    // El artículo cambió (o se eliminó): se reindexa en segundo plano
+    public static void marcarCambio(long articuloId) {
+        pendientes.add(articuloId);
+    }
+
+    // Cambió el nombre del autor, que se muestra en los resultados de todos sus artículos
+    public static void marcarAutor(long autorId) {
+        autoresPendientes.add(autorId);
+    }
+
+    // Cambios masivos (por ejemplo, al eliminar un usuario): se vuelve a comparar con la base de datos
+    public static void programarReconciliacion() {
+        reconciliar = true;
+    }
+
+    /**
+     * Busca artículos que contengan alguno de los términos de la consulta, ordenados por
+     * BM25 (y los más nuevos primero a igual puntaje).
+     * @param pagina empieza en 1; se ajusta al rango válido
+     */
+    public static Resultados buscar(String consulta, int pagina) {
+        long inicio = System.nanoTime();
+        List<String> terminos = new ArrayList<>(new LinkedHashSet<>(AnalizadorEspanol.analizar(consulta)));
+        if (terminos.size() > MAX_TERMINOS_CONSULTA) {
+            terminos = terminos.subList(0, MAX_TERMINOS_CONSULTA);
+        }
+
+        List<ResultadoBusqueda> resultados = new ArrayList<>();
+        int total = 0;
+        int totalPaginas;
+        lock.readLock().lock();
+        try {
+            SegmentoBusqueda segmento = base;
+            // Puntajes del segmento por ordinal (sin cajas ni hashing); los del delta van aparte
+            double[] puntajes = new double[segmento.cantidadDocumentos()];
+            Map<Long, double[]> puntajesDelta = new HashMap<>();
+            long documentos = segmento.cantidadDocumentos() - reemplazados.size() + delta.size();
+            if (documentos > 0) {
+                double largoMedio = Math.max(1.0,
+                        (double) (segmento.largoTotal - largoReemplazados + largoDelta) / documentos);
+                for (String termino : terminos) {
+                    puntuar(segmento, termino, documentos, largoMedio, puntajes, puntajesDelta);
+                }
+            }
+
+            for (int ordinal = 0; ordinal < puntajes.length; ordinal++) {
+                if (puntajes[ordinal] > 0 && !ordinalesReemplazados.get(ordinal)) total++;
+            }
+            total += puntajesDelta.size();
+            totalPaginas = (total + RESULTADOS_POR_PAGINA - 1) / RESULTADOS_POR_PAGINA;
+            pagina = Math.max(1, Math.min(pagina, Math.max(1, totalPaginas)));
+
+            // Solo se ordenan los mejores hasta el final de la página pedida
+            int limite = pagina * RESULTADOS_POR_PAGINA;
+            PriorityQueue<Candidato> mejores = new PriorityQueue<>(limite + 1, Candidato.PEOR_PRIMERO);
+            for (int ordinal = 0; ordinal < puntajes.length; ordinal++) {
+                if (puntajes[ordinal] > 0 && !ordinalesReemplazados.get(ordinal)) {
+                    considerar(mejores, limite, segmento.ids[ordinal], ordinal, puntajes[ordinal]);
+                }
+            }
+            for (Map.Entry<Long, double[]> entrada : puntajesDelta.entrySet()) {
+                considerar(mejores, limite, entrada.getKey(), -1, entrada.getValue()[0]);
+            }
+
+            List<Candidato> orden = new ArrayList<>(mejores);
+            orden.sort(Candidato.PEOR_PRIMERO.reversed());
+            for (int i = (pagina - 1) * RESULTADOS_POR_PAGINA; i < orden.size(); i++) {
+                resultados.add(resultado(segmento, orden.get(i)));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long nanos = System.nanoTime() - inicio;
+        consultas.increment();
+        nanosConsultas.add(nanos);
+        return new Resultados(resultados, total, pagina, totalPaginas, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    private static void puntuar(SegmentoBusqueda segmento, String termino, long documentos, double largoMedio,
+                                double[] puntajes, Map<Long, double[]> puntajesDelta) {
+        // df incluye los documentos reemplazados del segmento hasta la siguiente fusión (como Lucene)
+        int df = segmento.df(termino);
+        for (SegmentoBusqueda.Documento documento : delta.values()) {
+            if (documento.terminos.containsKey(termino)) df++;
+        }
+        if (df == 0) return;
+        double idf = Math.max(1e-6, Math.log(1 + (documentos - df + 0.5) / (df + 0.5)));
+
+        segmento.recorrer(termino, (ordinal, tf) ->
+                puntajes[ordinal] += idf * bm25(tf, segmento.largos[ordinal], largoMedio));
+        for (SegmentoBusqueda.Documento documento : delta.values()) {
+            Integer tf = documento.terminos.get(termino);
+            if (tf != null) {
+                puntajesDelta.computeIfAbsent(documento.id, id -> new double[1])[0] +=
+                        idf * bm25(tf, documento.largo, largoMedio);
+            }
+        }
+    }
+
+    private static double bm25(int tf, int largo, double largoMedio) {
+        return tf * (K1 + 1) / (tf + K1 * (1 - B + B * largo / largoMedio));
+    }
+
+    private static void considerar(PriorityQueue<Candidato> mejores, int limite, long id, int ordinal, double puntaje) {
+        if (mejores.size() == limite) {
+            Candidato peor = mejores.peek();
+            if (puntaje < peor.puntaje || (puntaje == peor.puntaje && id < peor.id)) return;
+            mejores.poll();
+        }
+        mejores.add(new Candidato(id, ordinal, puntaje));
+    }
+
+    private static ResultadoBusqueda resultado(SegmentoBusqueda segmento, Candidato candidato) {
+        if (candidato.ordinal < 0) {
+            SegmentoBusqueda.Documento documento = delta.get(candidato.id);
+            return new ResultadoBusqueda(candidato.id, documento.titulo, documento.extracto, documento.autor,
+                    new Date(documento.fecha), candidato.puntaje);
+        }
+        int ordinal = candidato.ordinal;
+        return new ResultadoBusqueda(candidato.id, segmento.titulo(ordinal), segmento.extracto(ordinal),
+                segmento.autor(ordinal), new Date(segmento.fecha(ordinal)), candidato.puntaje);
+    }
+
+    // Documento con puntaje; ordinal es -1 si está en el delta
+    private static final class Candidato {
+        // A igual puntaje gana el id más alto (el artículo más nuevo)
+        static final Comparator<Candidato> PEOR_PRIMERO = Comparator
+                .comparingDouble((Candidato c) -> c.puntaje)
+                .thenComparingLong(c -> c.id);
+
+        final long id;
+        final int ordinal;
+        final double puntaje;
+
+        Candidato(long id, int ordinal, double puntaje) {
+            this.id = id;
+            this.ordinal = ordinal;
+            this.puntaje = puntaje;
+        }
+    }
+
+    // ---- Indexación (solo en el hilo indexador) ----
+
+    // Si algo falla (por ejemplo, la base de datos no responde) el trabajo vuelve a quedar
+    // pendiente y se reintenta en la siguiente pasada
+    private static void procesarPendientes() throws IOException {
+        if (reconciliar) {
+            reconciliar = false;
+            try {
+                reconciliarConBaseDeDatos();
+            } catch (RuntimeException e) {
+                reconciliar = true;
+                throw e;
+            }
+        }
+        if (!autoresPendientes.isEmpty()) {
+            agregarArticulosDeAutores();
+        }
+        while (!pendientes.isEmpty()) {
+            List<Long> lote = new ArrayList<>(LOTE);
+            Iterator<Long> it = pendientes.iterator();
+            while (it.hasNext() && lote.size() < LOTE) {
+                lote.add(it.next());
+                // Se quita antes de indexar: un marcarCambio() durante la carga lo vuelve a agregar
+                it.remove();
+            }
+            try {
+                indexar(lote);
+            } catch (RuntimeException e) {
+                pendientes.addAll(lote);
+                throw e;
+            }
+        }
+
+        boolean hayCambios = !delta.isEmpty() || !reemplazados.isEmpty();
+        if (delta.size() + reemplazados.size() >= DELTA_MAX
+                || (hayCambios && System.currentTimeMillis() - ultimaCompactacion > COMPACTAR_CADA_MS)) {
+            compactar();
+        }
+    }
+
+    // Marca los artículos nuevos o con otra fechaModificacion, y quita los que ya no existen
+    private static void reconciliarConBaseDeDatos() {
+        Map<Long, Long> sellos = new HashMap<>();
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            for (Object[] fila : em.createQuery("SELECT a.id, a.fechaModificacion FROM Articulo a", Object[].class)
+                    .getResultList()) {
+                Date modificado = (Date) fila[1];
+                sellos.put((Long) fila[0], modificado != null ? modificado.getTime() : 0L);
+            }
+        } finally {
+            em.close();
+        }
+
+        for (Map.Entry<Long, Long> articulo : sellos.entrySet()) {
+            Long actual = selloIndexado(articulo.getKey());
+            if (actual == null || actual.longValue() != articulo.getValue()) {
+                pendientes.add(articulo.getKey());
+            }
+        }
+        for (long id : base.ids) {
+            if (!sellos.containsKey(id)) pendientes.add(id);
+        }
+        for (Long id : delta.keySet()) {
+            if (!sellos.containsKey(id)) pendientes.add(id);
+        }
+    }
+
+    private static Long selloIndexado(long id) {
+        SegmentoBusqueda.Documento documento = delta.get(id);
+        if (documento != null) return documento.sello;
+        int ordinal = base.ordinal(id);
+        if (ordinal < 0 || reemplazados.contains(id)) return null;
+        return base.sellos[ordinal];
+    }
+
+    private static void agregarArticulosDeAutores() {
+        List<Long> autores = new ArrayList<>(autoresPendientes);
+        autoresPendientes.removeAll(autores);
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            pendientes.addAll(em.createQuery("SELECT a.id FROM Articulo a WHERE a.autor.id IN :autores", Long.class)
+                    .setParameter("autores", autores)
+                    .getResultList());
+        } catch (RuntimeException e) {
+            autoresPendientes.addAll(autores);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    // Carga el lote con tres consultas (artículos, etiquetas y comentarios) y actualiza el delta
+    private static void indexar(List<Long> ids) {
+        Map<Long, SegmentoBusqueda.Documento> documentos = new HashMap<>();
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            Map<Long, Map<String, Integer>> terminos = new HashMap<>();
+            List<Object[]> articulos = em.createQuery(
+                            "SELECT a.id, a.fechaModificacion, a.titulo, a.cuerpo, a.extracto, au.nombre, a.fecha " +
+                            "FROM Articulo a LEFT JOIN a.autor au WHERE a.id IN :ids", Object[].class)
+                    .setParameter("ids", ids)
+                    .getResultList();
+            for (Object[] fila : articulos) {
+                Map<String, Integer> mapa = new HashMap<>();
+                contar(mapa, (String) fila[2], PESO_TITULO);
+                contar(mapa, (String) fila[3], PESO_CUERPO);
+                terminos.put((Long) fila[0], mapa);
+            }
+            if (!articulos.isEmpty()) {
+                for (Object[] fila : em.createQuery(
+                                "SELECT a.id, e.etiqueta FROM Articulo a JOIN a.etiquetas e WHERE a.id IN :ids", Object[].class)
+                        .setParameter("ids", terminos.keySet())
+                        .getResultList()) {
+                    contar(terminos.get((Long) fila[0]), (String) fila[1], PESO_ETIQUETA);
+                }
+                if (CON_COMENTARIOS) {
+                    for (Object[] fila : em.createQuery(
+                                    "SELECT c.articulo.id, c.comentario FROM Comentario c WHERE c.articulo.id IN :ids", Object[].class)
+                            .setParameter("ids", terminos.keySet())
+                            .getResultList()) {
+                        contar(terminos.get((Long) fila[0]), (String) fila[1], PESO_COMENTARIO);
+                    }
+                }
+            }
+            for (Object[] fila : articulos) {
+                Long id = (Long) fila[0];
+                Date modificado = (Date) fila[1];
+                Date fecha = (Date) fila[6];
+                documentos.put(id, new SegmentoBusqueda.Documento(id, modificado != null ? modificado.getTime() : 0L,
+                        terminos.get(id), (String) fila[2], (String) fila[4], (String) fila[5],
+                        fecha != null ? fecha.getTime() : 0L));
+            }
+        } finally {
+            em.close();
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Long id : ids) {
+                SegmentoBusqueda.Documento anterior = delta.remove(id);
+                if (anterior != null) largoDelta -= anterior.largo;
+                int ordinal = base.ordinal(id);
+                if (ordinal >= 0 && reemplazados.add(id)) {
+                    ordinalesReemplazados.set(ordinal);
+                    largoReemplazados += base.largos[ordinal];
+                }
+
+                SegmentoBusqueda.Documento documento = documentos.get(id);
+                if (documento != null) {
+                    delta.put(id, documento);
+                    largoDelta += documento.largo;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        indexados.add(ids.size());
+    }
+
+    private static void contar(Map<String, Integer> mapa, String texto, int peso) {
+        if (mapa == null) return;
+        for (String termino : AnalizadorEspanol.analizar(texto)) {
+            mapa.merge(termino, peso, Integer::sum);
+        }
+    }
+
+    // Fusiona el segmento actual (sin los reemplazados) y el delta en un segmento nuevo
+    private static void compactar() throws IOException {
+        SegmentoBusqueda anterior = base;
+        // Solo este hilo modifica el índice: leer el delta sin el lock de escritura es seguro
+        List<SegmentoBusqueda.Documento> documentos = anterior.documentos(reemplazados);
+        documentos.addAll(delta.values());
+        Path destino = DIRECTORIO.resolve(String.format("segmento-%06d.idx", numeroSegmento + 1));
+        SegmentoBusqueda.escribir(destino, documentos);
+        SegmentoBusqueda nuevo = SegmentoBusqueda.abrir(destino);
+
+        lock.writeLock().lock();
+        try {
+            base = nuevo;
+            delta.clear();
+            reemplazados.clear();
+            ordinalesReemplazados.clear();
+            largoDelta = 0;
+            largoReemplazados = 0;
+            numeroSegmento++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ultimaCompactacion = System.currentTimeMillis();
+        compactaciones.increment();
+        if (anterior.archivo != null) {
+            try {
+                Files.deleteIfExists(anterior.archivo);
+            } catch (IOException e) {
+                // En Windows no se puede borrar mientras siga mapeado: se borra al próximo arranque
+            }
+        }
+    }
+
+    /**
+     * Abre el segmento válido con el número más alto (si el último está dañado se prueba con
+     * el anterior). Los demás archivos, temporales incluidos, se borran solo después de abrirlo;
+     * si ninguno sirve se borran todos y la reconciliación reconstruye el índice.
+     */
+    private static void abrirUltimoSegmento() throws IOException {
+        List<Path> archivos = new ArrayList<>();
+        try (DirectoryStream<Path> directorio = Files.newDirectoryStream(DIRECTORIO, "segmento-*")) {
+            for (Path archivo : directorio) {
+                archivos.add(archivo);
+            }
+        }
+        archivos.sort(null);
+        Path abierto = null;
+        for (int i = archivos.size() - 1; i >= 0 && abierto == null; i--) {
+            Path archivo = archivos.get(i);
+            long numero = numeroDeSegmento(archivo);
+            if (numero < 0) continue;
+            // Los nuevos nunca reutilizan el número de uno dañado, aunque no se haya podido borrar
+            numeroSegmento = Math.max(numeroSegmento, numero);
+            try {
+                base = SegmentoBusqueda.abrir(archivo);
+                abierto = archivo;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Segmento de búsqueda descartado (" + archivo.getFileName() + "): " + e.getMessage());
+            }
+        }
+        for (Path archivo : archivos) {
+            if (archivo.equals(abierto)) continue;
+            try {
+                Files.deleteIfExists(archivo);
+            } catch (IOException e) {
+                // En Windows no se puede borrar mientras siga mapeado: se borra al próximo arranque
+            }
+        }
+        if (abierto != null) {
+            System.out.println("Índice de búsqueda abierto: " + base.cantidadDocumentos() + " artículo(s) en "
+                    + abierto.getFileName());
+        }
+    }
+
+    // -1 si no es un segmento terminado ("segmento-000012.idx")
+    private static long numeroDeSegmento(Path archivo) {
+        String nombre = archivo.getFileName().toString();
+        if (!nombre.endsWith(".idx")) return -1;
+        try {
+            return Long.parseLong(nombre.substring("segmento-".length(), nombre.length() - ".idx".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("documentos", base.cantidadDocumentos() - reemplazados.size() + delta.size());
+            stats.put("terminosSegmento", base.cantidadTerminos());
+            stats.put("bytesSegmento", base.bytes());
+            stats.put("documentosDelta", delta.size());
+            stats.put("reemplazados", reemplazados.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        long total = consultas.sum();
+        stats.put("pendientes", pendientes.size());
+        stats.put("consultas", total);
+        stats.put("promedioMicros", total > 0 ? TimeUnit.NANOSECONDS.toMicros(nanosConsultas.sum() / total) : 0);
+        stats.put("documentosIndexados", indexados.sum());
+        stats.put("compactaciones", compactaciones.sum());
+        return stats;
+    }
+}
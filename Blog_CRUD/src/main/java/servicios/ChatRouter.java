@@ -0,0 +1,257 @@
+package servicios;
+
+import app.java.DataSourceConfig;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.websocket.WsContext;
+import modelos.UsuarioSesion;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Conexiones abiertas de /ws/chat indexadas por usuario.
+ * Un mensaje se entrega solo a las pestañas del emisor, a las del receptor y a las de los
+ * admins, así el costo de enviarlo depende de sus destinatarios y no de cuántos usuarios haya
+ * en línea. Las conexiones anónimas no se suscriben: esas páginas piden el delta
+ * (/mensajes/obtener?sinceId=) cada tanto mientras el chat está abierto.
+ *
+ * El reparto no bloquea al hilo que recibió el mensaje: un hilo propio lo encola en cada
+ * destinatario y cada conexión envía su cola con escrituras asíncronas de Jetty, de una en una.
+ * Las colas tienen un máximo (WS_COLA_MAX); cuando un cliente lento lo alcanza se aplica
+ * WS_POLITICA_LENTO: "descartar" (por defecto) tira el mensaje más viejo de su cola y
+ * "cerrar" cierra su conexión.
+ */
+public class ChatRouter {
+
+    private static final int COLA_MAX = Math.max(1, DataSourceConfig.getInt("WS_COLA_MAX", 64));
+    private static final boolean CERRAR_LENTOS = "cerrar".equalsIgnoreCase(DataSourceConfig.get("WS_POLITICA_LENTO"));
+    private static final int CIERRE_POLITICA = 1008;
+
+    // sessionId -> conexión
+    private static final Map<String, Conexion> conexiones = new ConcurrentHashMap<>();
+    // id de usuario -> sus conexiones (una por pestaña)
+    private static final Map<Long, Set<Conexion>> porUsuario = new ConcurrentHashMap<>();
+    // Conexiones de admins: reciben todos los mensajes
+    private static final Set<Conexion> verTodo = ConcurrentHashMap.newKeySet();
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final ExecutorService reparto = Executors.newSingleThreadExecutor(r -> {
+        Thread hilo = new Thread(r, "chat-reparto");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    private static final LongAdder enviados = new LongAdder();
+    private static final LongAdder descartados = new LongAdder();
+    private static final LongAdder fallidos = new LongAdder();
+    private static final LongAdder cerradosPorLentitud = new LongAdder();
+
+    /**
+     * Una conexión con su cola de salida. Solo hay una escritura en curso a la vez:
+     * al terminar (writeSuccess) se envía el siguiente mensaje de la cola.
+     */
+    private static final class Conexion implements WriteCallback {
+        private final WsContext ctx;
+        private final Long usuarioId;
+        private final ArrayDeque<String> cola = new ArrayDeque<>();
+        private boolean enviando;
+        private boolean cerrada;
+
+        Conexion(WsContext ctx, Long usuarioId) {
+            this.ctx = ctx;
+            this.usuarioId = usuarioId;
+        }
+
+        void encolar(String frame) {
+            boolean iniciar = false;
+            boolean cerrarAhora = false;
+            synchronized (this) {
+                if (cerrada) return;
+                if (cola.size() >= COLA_MAX && CERRAR_LENTOS) {
+                    // Solo se marca: quitar() y closeSession se llaman sin el lock de la conexión
+                    cola.clear();
+                    cerrada = true;
+                    cerrarAhora = true;
+                } else {
+                    if (cola.size() >= COLA_MAX) {
+                        cola.pollFirst();
+                        descartados.increment();
+                    }
+                    cola.addLast(frame);
+                    iniciar = !enviando;
+                    enviando = true;
+                }
+            }
+            if (cerrarAhora) {
+                cerradosPorLentitud.increment();
+                cerrar();
+            } else if (iniciar) {
+                enviarSiguiente();
+            }
+        }
+
+        private void enviarSiguiente() {
+            String frame;
+            synchronized (this) {
+                frame = cola.pollFirst();
+                if (frame == null) {
+                    enviando = false;
+                    return;
+                }
+            }
+            // No se mantiene el lock durante el envío: Jetty puede llamar al callback en este mismo hilo
+            try {
+                ctx.session.getRemote().sendString(frame, this);
+            } catch (RuntimeException e) {
+                // Sesión ya cerrada, por ejemplo: se trata como un envío fallido para no dejar
+                // 'enviando' en true ni cortar el reparto a los demás destinatarios
+                writeFailed(e);
+            }
+        }
+
+        synchronized int pendientes() {
+            return cola.size();
+        }
+
+        @Override
+        public void writeSuccess() {
+            enviados.increment();
+            enviarSiguiente();
+        }
+
+        @Override
+        public void writeFailed(Throwable error) {
+            fallidos.increment();
+            synchronized (this) {
+                cola.clear();
+                enviando = false;
+                cerrada = true;
+            }
+            quitar(this);
+        }
+
+        private void cerrar() {
+            quitar(this);
+            try {
+                ctx.closeSession(CIERRE_POLITICA, "Cliente demasiado lento");
+            } catch (Exception ignored) {
+                // La conexión ya estaba cerrada
+            }
+        }
+    }
+
+    /**
+     * Registra la conexión de un usuario, indexada por su id; las de admins se suscriben además
+     * a todos los mensajes. Las anónimas no se registran (no reciben nada).
+     */
+    public static void registrar(WsContext ctx, UsuarioSesion usuario) {
+        if (usuario == null) return;
+        Conexion conexion = new Conexion(ctx, usuario.getId());
+        conexiones.put(ctx.sessionId(), conexion);
+        if (usuario.isAdmin()) {
+            verTodo.add(conexion);
+        }
+        // El add va dentro de compute: así no se cruza con quitar(), que borra el set vacío
+        porUsuario.compute(usuario.getId(), (id, suyas) -> {
+            if (suyas == null) suyas = ConcurrentHashMap.newKeySet();
+            suyas.add(conexion);
+            return suyas;
+        });
+    }
+
+    public static void eliminar(WsContext ctx) {
+        Conexion conexion = conexiones.get(ctx.sessionId());
+        if (conexion != null) {
+            quitar(conexion);
+        }
+    }
+
+    private static void quitar(Conexion conexion) {
+        conexiones.remove(conexion.ctx.sessionId(), conexion);
+        verTodo.remove(conexion);
+        if (conexion.usuarioId == null) return;
+        // Se elimina la entrada del usuario cuando cierra su última pestaña
+        porUsuario.computeIfPresent(conexion.usuarioId, (id, suyas) -> {
+            suyas.remove(conexion);
+            return suyas.isEmpty() ? null : suyas;
+        });
+    }
+
+    /**
+     * Serializa el frame una sola vez y lo entrega como en entregar().
+     * emisorId y receptorId pueden ser null (mensaje anónimo o sin receptor).
+     */
+    public static void publicar(Map<String, Object> frame, Long emisorId, Long receptorId) {
+        try {
+            entregar(mapper.writeValueAsString(frame), emisorId, receptorId);
+        } catch (JsonProcessingException e) {
+            System.err.println("No se pudo serializar el mensaje de chat: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Envía el mensaje (ya serializado una sola vez, el mismo String para todos) al emisor,
+     * al receptor y a las conexiones que ven todo, sin duplicados si una conexión cumple varios papeles.
+     * Retorna de inmediato: el reparto ocurre en el hilo "chat-reparto".
+     */
+    public static void entregar(String json, Long emisorId, Long receptorId) {
+        reparto.execute(() -> {
+            Set<Conexion> destinatarios = new LinkedHashSet<>(verTodo);
+            agregarConexiones(destinatarios, emisorId);
+            agregarConexiones(destinatarios, receptorId);
+            for (Conexion destinatario : destinatarios) {
+                destinatario.encolar(json);
+            }
+        });
+    }
+
+    // Envía un mensaje a una sola conexión por su cola (por ejemplo, el historial al conectarse)
+    public static void enviarA(WsContext ctx, String json) {
+        Conexion conexion = conexiones.get(ctx.sessionId());
+        if (conexion != null) {
+            conexion.encolar(json);
+        }
+    }
+
+    private static void agregarConexiones(Set<Conexion> destinatarios, Long usuarioId) {
+        if (usuarioId == null) return;
+        Set<Conexion> suyas = porUsuario.get(usuarioId);
+        if (suyas != null) {
+            destinatarios.addAll(suyas);
+        }
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        int enCola = 0;
+        int colaMasLarga = 0;
+        for (Conexion conexion : conexiones.values()) {
+            int pendientes = conexion.pendientes();
+            enCola += pendientes;
+            colaMasLarga = Math.max(colaMasLarga, pendientes);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("conexiones", conexiones.size());
+        stats.put("usuarios", porUsuario.size());
+        stats.put("suscritosATodo", verTodo.size());
+        stats.put("colaMaxima", COLA_MAX);
+        stats.put("politicaLentos", CERRAR_LENTOS ? "cerrar" : "descartar");
+        stats.put("mensajesEnCola", enCola);
+        stats.put("colaMasLarga", colaMasLarga);
+        stats.put("enviados", enviados.sum());
+        stats.put("descartados", descartados.sum());
+        stats.put("fallidos", fallidos.sum());
+        stats.put("cerradosPorLentitud", cerradosPorLentitud.sum());
+        return stats;
+    }
+}
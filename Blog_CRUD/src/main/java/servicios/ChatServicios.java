@@ -2,11 +2,18 @@ package servicios;
 
 import modelos.Mensaje;
 import modelos.User;
+import modelos.UsuarioSesion;
 import app.java.DatabaseUtil;
+import app.java.InputSanitizer;
+import app.java.ValidacionCondicional;
 
 
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import io.javalin.http.Context;
@@ -14,6 +21,13 @@ import io.javalin.http.Context;
 
 public class ChatServicios {
 
+    public static final int HISTORIAL_LIMITE_DEFECTO = 50;
+    public static final int HISTORIAL_LIMITE_MAXIMO = 200;
+
+    private static final String CONSULTA_MENSAJES =
+            "SELECT m.id, m.contenido, m.fecha, e.username, e.nombre, m.emisorAnonimo, r.username " +
+            "FROM Mensaje m LEFT JOIN m.emisor e LEFT JOIN m.receptor r ";
+
     public static void enviarMensaje(Context ctx) {
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
@@ -25,7 +39,7 @@ public class ChatServicios {
 
             em.getTransaction().begin();
 
-            User usuario = ctx.sessionAttribute("usuario");
+            UsuarioSesion usuario = ctx.sessionAttribute("usuario");
             Mensaje mensaje = new Mensaje();
             mensaje.setContenido(contenido.trim());
             mensaje.setFecha(new Date(System.currentTimeMillis()));
@@ -38,12 +52,14 @@ public class ChatServicios {
                 }
                 mensaje.setEmisorAnonimo(nombre);
             } else {
-                mensaje.setEmisor(usuario);
+                mensaje.setEmisor(em.getReference(User.class, usuario.getId()));
             }
 
             em.persist(mensaje);
             em.getTransaction().commit();
 
+            ValidacionCondicional.cambioMensajes();
+
             ctx.json(Map.of("mensaje", "Mensaje enviado correctamente"));
         } catch (Exception e) {
             if (em.getTransaction().isActive()) {
@@ -58,7 +74,7 @@ public class ChatServicios {
 
 
 
-    public static List<Mensaje> obtenerMensajes(User usuario) {
+    public static List<Mensaje> obtenerMensajes(UsuarioSesion usuario) {
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
             if (usuario.isAdmin() || usuario.isAutor()) { // Corrección en la validación de roles
@@ -67,8 +83,8 @@ public class ChatServicios {
                         .getResultList();
             } else {
                 // Usuarios normales solo ven sus mensajes enviados
-                return em.createQuery("SELECT m FROM Mensaje m WHERE m.emisor = :usuario ORDER BY m.fecha DESC", Mensaje.class)
-                        .setParameter("usuario", usuario)
+                return em.createQuery("SELECT m FROM Mensaje m WHERE m.emisor.id = :usuarioId ORDER BY m.fecha DESC", Mensaje.class)
+                        .setParameter("usuarioId", usuario.getId())
                         .getResultList();
             }
         } finally {
@@ -76,7 +92,7 @@ public class ChatServicios {
         }
     }
 
-    public static boolean eliminarMensaje(Long mensajeId, User usuario) {
+    public static boolean eliminarMensaje(Long mensajeId, UsuarioSesion usuario) {
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
             em.getTransaction().begin();
@@ -95,6 +111,8 @@ public class ChatServicios {
 
             em.remove(mensaje);
             em.getTransaction().commit();
+
+            ValidacionCondicional.cambioMensajes();
             return true;
 
         } catch (Exception e) {
@@ -106,4 +124,102 @@ public class ChatServicios {
             em.close();
         }
     }
+
+    /**
+     * Página del historial de chat posterior a desdeId (exclusivo), en orden de id.
+     * Visitantes anónimos (usuario null), admins y autores ven todos los mensajes; los demás
+     * usuarios solo los suyos. Se pide un mensaje extra para saber si hay más páginas, y se
+     * proyectan solo las columnas necesarias en vez de cargar entidades.
+     * @return frame {tipo: "historial", mensajes, hayMas, ultimoId}; el cliente vuelve a pedir
+     *         desde ultimoId mientras hayMas sea true
+     */
+    public static Map<String, Object> paginaHistorial(UsuarioSesion usuario, long desdeId, int limite) {
+        int tamano = Math.max(1, Math.min(limite, HISTORIAL_LIMITE_MAXIMO));
+        boolean verTodos = veTodos(usuario);
+
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            TypedQuery<Object[]> query = em.createQuery(CONSULTA_MENSAJES +
+                    "WHERE m.id > :desdeId" + (verTodos ? "" : " AND (e.id = :usuarioId OR r.id = :usuarioId)") +
+                    " ORDER BY m.id", Object[].class);
+            query.setParameter("desdeId", desdeId);
+            if (!verTodos) {
+                query.setParameter("usuarioId", usuario.getId());
+            }
+            List<Object[]> filas = query.setMaxResults(tamano + 1).getResultList();
+
+            boolean hayMas = filas.size() > tamano;
+            if (hayMas) {
+                filas = filas.subList(0, tamano);
+            }
+
+            List<Map<String, Object>> mensajes = aDTOs(filas);
+            long ultimoId = mensajes.isEmpty() ? desdeId : (Long) filas.get(filas.size() - 1)[0];
+
+            Map<String, Object> frame = new LinkedHashMap<>();
+            frame.put("tipo", "historial");
+            frame.put("mensajes", mensajes);
+            frame.put("hayMas", hayMas);
+            frame.put("ultimoId", ultimoId);
+            return frame;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Los últimos `limite` mensajes visibles para el usuario, del más viejo al más nuevo.
+     * Es la carga inicial del chat; a partir de ahí el cliente solo pide deltas (paginaHistorial).
+     */
+    public static List<Map<String, Object>> ultimosMensajes(UsuarioSesion usuario, int limite) {
+        boolean verTodos = veTodos(usuario);
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            TypedQuery<Object[]> query = em.createQuery(CONSULTA_MENSAJES +
+                    (verTodos ? "" : "WHERE e.id = :usuarioId OR r.id = :usuarioId ") +
+                    "ORDER BY m.id DESC", Object[].class);
+            if (!verTodos) {
+                query.setParameter("usuarioId", usuario.getId());
+            }
+            List<Object[]> filas = new ArrayList<>(query.setMaxResults(limite).getResultList());
+            Collections.reverse(filas);
+            return aDTOs(filas);
+        } finally {
+            em.close();
+        }
+    }
+
+    private static boolean veTodos(UsuarioSesion usuario) {
+        return usuario == null || usuario.isAdmin() || usuario.isAutor();
+    }
+
+    // Filas de CONSULTA_MENSAJES -> DTOs; el autor es el username, el nombre o el alias anónimo
+    private static List<Map<String, Object>> aDTOs(List<Object[]> filas) {
+        List<Map<String, Object>> mensajes = new ArrayList<>(filas.size());
+        for (Object[] fila : filas) {
+            String autor = fila[3] != null ? (String) fila[3] : fila[4] != null ? (String) fila[4] : (String) fila[5];
+            mensajes.add(mensajeDTO((Long) fila[0], (String) fila[1], (Date) fila[2], autor, (String) fila[6]));
+        }
+        return mensajes;
+    }
+
+    /**
+     * Frame que se envía por /ws/chat cuando se guarda un mensaje nuevo.
+     */
+    public static Map<String, Object> frameMensaje(Long id, String contenido, Date fecha, String autor, String receptor) {
+        Map<String, Object> frame = mensajeDTO(id, contenido, fecha, autor, receptor);
+        frame.put("tipo", "mensaje");
+        return frame;
+    }
+
+    // Textos codificados para HTML: el cliente los inserta con innerHTML
+    private static Map<String, Object> mensajeDTO(Long id, String contenido, Date fecha, String autor, String receptor) {
+        Map<String, Object> dto = new LinkedHashMap<>();
+        dto.put("id", id);
+        dto.put("contenido", InputSanitizer.encodeForHtml(contenido));
+        dto.put("autor", InputSanitizer.encodeForHtml(autor));
+        dto.put("receptor", receptor != null ? InputSanitizer.encodeForHtml(receptor) : null);
+        dto.put("fecha", fecha);
+        return dto;
+    }
 }
@@ -2,13 +2,64 @@ package servicios;
 
 import modelos.Comentario;
 import modelos.Articulo;
+import modelos.ComentarioResumen;
 import modelos.User;
 import app.java.DatabaseUtil;
 
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ComentarioServicios {
 
+    public static final int COMENTARIOS_POR_PAGINA = 20;
+    public static final int COMENTARIOS_POR_PAGINA_MAX = 100;
+
+    public static class Pagina {
+        private final List<ComentarioResumen> comentarios;
+        private final Long siguienteCursor;
+
+        Pagina(List<ComentarioResumen> comentarios, Long siguienteCursor) {
+            this.comentarios = comentarios;
+            this.siguienteCursor = siguienteCursor;
+        }
+
+        public List<ComentarioResumen> getComentarios() {
+            return comentarios;
+        }
+
+        // Id del último comentario de la página; null si no hay más
+        public Long getSiguienteCursor() {
+            return siguienteCursor;
+        }
+    }
+
+    /**
+     * Comentarios de un artículo en orden de publicación, paginados por cursor sobre el id
+     * (índice articulo_id, id): una sola consulta con el nombre del autor, y la página N
+     * cuesta lo mismo que la primera aunque el artículo tenga miles de comentarios.
+     * @param despues id del último comentario ya mostrado (0 = primera página)
+     */
+    public static Pagina obtenerPagina(EntityManager em, long articuloId, long despues, int limite) {
+        // Se pide un elemento extra para saber si existe una página siguiente
+        List<ComentarioResumen> comentarios = new ArrayList<>(em.createQuery(
+                        "SELECT new modelos.ComentarioResumen(c.id, c.comentario, au.nombre) " +
+                                "FROM Comentario c LEFT JOIN c.autor au " +
+                                "WHERE c.articulo.id = :articuloId AND c.id > :despues ORDER BY c.id",
+                        ComentarioResumen.class)
+                .setParameter("articuloId", articuloId)
+                .setParameter("despues", despues)
+                .setMaxResults(limite + 1)
+                .getResultList());
+
+        Long siguiente = null;
+        if (comentarios.size() > limite) {
+            comentarios = comentarios.subList(0, limite);
+            siguiente = comentarios.get(limite - 1).getId();
+        }
+        return new Pagina(comentarios, siguiente);
+    }
+
     public static Comentario crearComentario(String contenido, User autor, Articulo articulo) {
         if (contenido == null || contenido.trim().isEmpty() || autor == null || articulo == null) {
             return null;
@@ -24,10 +75,7 @@ public class ComentarioServicios {
             nuevoComentario.setArticulo(articulo);
 
             em.persist(nuevoComentario);
-
-            // Actualizar relación bidireccional
-            articulo.getComentarios().add(nuevoComentario);
-            em.merge(articulo);
+            ArticuloServicios.sumarComentarios(em, articulo.getId(), 1);
 
             em.getTransaction().commit();
             return nuevoComentario;
@@ -54,12 +102,8 @@ public class ComentarioServicios {
             boolean esAutor = comentario.getAutor().getId().equals(usuario.getId());
             if (!usuario.isAdmin() && !esAutor) return false;
 
-            // Actualizar relación bidireccional
-            Articulo articulo = comentario.getArticulo();
-            articulo.getComentarios().remove(comentario);
-            em.merge(articulo);
-
             em.remove(comentario);
+            ArticuloServicios.sumarComentarios(em, comentario.getArticulo().getId(), -1);
             em.getTransaction().commit();
             return true;
 
@@ -0,0 +1,389 @@
+package servicios;
+
+import app.java.DataSourceConfig;
+import app.java.DatabaseUtil;
+import app.java.Planificador;
+import modelos.ArticuloVistas;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TemporalType;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vistas de /articulo/{id} sin escribir en la base de datos al servir la página: cada lectura
+ * suma en un LongAdder del artículo (repartido en celdas, sin contención entre hilos) y cada
+ * VISTAS_VOLCAR_SEG segundos (30) el Planificador vuelca lo acumulado en lotes JDBC: el total
+ * en Articulo.totalVistas y el del día en VistaDiaria. Lo pendiente también se vuelca al apagar
+ * la aplicación (DatabaseUtil.alCerrar).
+ *
+ * Las vistas de los últimos 7 días se guardan además en memoria, en una ventana circular por
+ * artículo con una celda por día; de ahí sale "Más leídos esta semana" (/index y
+ * /api/mas-leidos). Al arrancar la ventana se rearma desde VistaDiaria. Cada volcado también
+ * pasa las vistas a RankingTendencias.
+ */
+public class ContadorVistas {
+
+    private static final int DIAS = 7;
+    private static final int MAS_LEIDOS_MAX = Math.max(1, DataSourceConfig.getInt("MAS_LEIDOS_MAX", 5));
+    private static final int DIAS_RETENER = Math.max(DIAS, DataSourceConfig.getInt("VISTAS_DIAS_RETENER", 30));
+
+    private static final String SUMAR_TOTAL = "UPDATE Articulo SET totalVistas = totalVistas + ? WHERE id = ?";
+    // En SQL Server un MERGE con HOLDLOCK suma o inserta la fila del día en una sola sentencia
+    private static final String SUMAR_DIA_SQL_SERVER = "MERGE VistaDiaria WITH (HOLDLOCK) AS v " +
+            "USING (SELECT ? AS articulo_id, ? AS dia, ? AS vistas) AS n " +
+            "ON v.articulo_id = n.articulo_id AND v.dia = n.dia " +
+            "WHEN MATCHED THEN UPDATE SET vistas = v.vistas + n.vistas " +
+            "WHEN NOT MATCHED THEN INSERT (articulo_id, dia, vistas) VALUES (n.articulo_id, n.dia, n.vistas);";
+    private static final String SUMAR_DIA = "UPDATE VistaDiaria SET vistas = vistas + ? WHERE articulo_id = ? AND dia = ?";
+    private static final String INSERTAR_DIA = "INSERT INTO VistaDiaria (articulo_id, dia, vistas) VALUES (?, ?, ?)";
+
+    // Vistas todavía no volcadas. Los adders no se quitan del mapa (hay uno por artículo leído):
+    // quitar uno mientras otro hilo lo incrementa perdería esa vista
+    private static final ConcurrentHashMap<Long, LongAdder> pendientes = new ConcurrentHashMap<>();
+
+    // Ventana de los últimos DIAS días: por artículo un long[DIAS] indexado por día % DIAS, y
+    // diaDeCelda dice a qué día (LocalDate.toEpochDay) corresponde cada celda. Solo se usan con
+    // el lock de la clase
+    private static final TablaLong<long[]> semana = new TablaLong<>();
+    private static final long[] diaDeCelda = new long[DIAS];
+
+    private static volatile List<ArticuloVistas> masLeidos = Collections.emptyList();
+    // Cambia solo cuando la lista (ids, títulos o totales) es distinta: forma parte del ETag de /index
+    private static final AtomicLong versionMasLeidos = new AtomicLong();
+
+    private static final LongAdder volcados = new LongAdder();
+    private static final LongAdder vistasVolcadas = new LongAdder();
+    private static final LongAdder fallos = new LongAdder();
+    private static volatile long ultimoVolcadoMs;
+    private static volatile int articulosSemana;
+
+    /**
+     * Cuenta una lectura del artículo. Solo suma en memoria.
+     */
+    public static void registrar(long articuloId) {
+        LongAdder contador = pendientes.get(articuloId);
+        if (contador == null) contador = pendientes.computeIfAbsent(articuloId, id -> new LongAdder());
+        contador.increment();
+    }
+
+    /**
+     * Los MAS_LEIDOS_MAX (5) artículos con más vistas en los últimos 7 días, de mayor a menor.
+     * Se recalcula en cada volcado.
+     */
+    public static List<ArticuloVistas> masLeidos() {
+        return masLeidos;
+    }
+
+    public static long versionMasLeidos() {
+        return versionMasLeidos.get();
+    }
+
+    private static void publicarMasLeidos(List<ArticuloVistas> nuevos) {
+        List<ArticuloVistas> anteriores = masLeidos;
+        masLeidos = nuevos;
+        if (!mismosMasLeidos(anteriores, nuevos)) {
+            versionMasLeidos.incrementAndGet();
+        }
+    }
+
+    private static boolean mismosMasLeidos(List<ArticuloVistas> a, List<ArticuloVistas> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            ArticuloVistas x = a.get(i);
+            ArticuloVistas y = b.get(i);
+            if (!x.getId().equals(y.getId()) || x.getVistas() != y.getVistas()
+                    || !x.getTitulo().equals(y.getTitulo())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Carga la ventana de la semana y programa el volcado, la purga diaria de VistaDiaria
+     * (filas de más de VISTAS_DIAS_RETENER días o de artículos eliminados) y el volcado al apagar.
+     */
+    public static void iniciar() {
+        cargarSemana();
+        long segundos = Math.max(1, DataSourceConfig.getLong("VISTAS_VOLCAR_SEG", 30));
+        Planificador.cadaCierto("volcado de vistas", ContadorVistas::volcar, segundos, TimeUnit.SECONDS);
+        Planificador.cadaCierto("purga de vistas diarias", ContadorVistas::purgar, 1, TimeUnit.DAYS);
+        DatabaseUtil.alCerrar(ContadorVistas::volcar);
+    }
+
+    private static synchronized void cargarSemana() {
+        LocalDate hoy = LocalDate.now();
+        avanzar(hoy.toEpochDay());
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            for (Object[] fila : em.createQuery(
+                            "SELECT v.articuloId, v.dia, v.vistas FROM VistaDiaria v WHERE v.dia > :desde",
+                            Object[].class)
+                    .setParameter("desde", java.sql.Date.valueOf(hoy.minusDays(DIAS)), TemporalType.DATE)
+                    .getResultList()) {
+                LocalDate fecha = new java.sql.Date(((Date) fila[1]).getTime()).toLocalDate();
+                sumarSemana((Long) fila[0], fecha.toEpochDay(), (Long) fila[2]);
+                // Para las tendencias las vistas de cada día cuentan desde el mediodía
+                long mediodia = fecha.atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                RankingTendencias.vistas((Long) fila[0], (Long) fila[2], Math.min(mediodia, System.currentTimeMillis()));
+            }
+        } finally {
+            em.close();
+        }
+        calcularMasLeidos();
+    }
+
+    /**
+     * Vuelca las vistas acumuladas en una transacción. Si falla, las devuelve a los contadores
+     * para el próximo intento. Las vistas cuentan para el día del volcado.
+     */
+    public static synchronized void volcar() {
+        long inicio = System.currentTimeMillis();
+        long hoy = LocalDate.now().toEpochDay();
+        boolean cambioDia = avanzar(hoy);
+
+        // Lo que llegue mientras tanto queda en los contadores para el próximo volcado
+        Map<Long, Long> lote = new HashMap<>();
+        for (Map.Entry<Long, LongAdder> entrada : pendientes.entrySet()) {
+            long vistas = entrada.getValue().sumThenReset();
+            if (vistas > 0) lote.put(entrada.getKey(), vistas);
+        }
+        if (lote.isEmpty()) {
+            if (cambioDia) calcularMasLeidos();
+            return;
+        }
+
+        Set<Long> eliminados;
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            eliminados = em.unwrap(Session.class).doReturningWork(conexion -> escribir(conexion, lote, hoy));
+            em.getTransaction().commit();
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            for (Map.Entry<Long, Long> entrada : lote.entrySet()) {
+                pendientes.computeIfAbsent(entrada.getKey(), id -> new LongAdder()).add(entrada.getValue());
+            }
+            fallos.increment();
+            System.err.println("No se pudieron volcar las vistas de " + lote.size() + " artículo(s): " + e.getMessage());
+            return;
+        } finally {
+            em.close();
+        }
+
+        long total = 0;
+        long ahora = System.currentTimeMillis();
+        for (Map.Entry<Long, Long> entrada : lote.entrySet()) {
+            long id = entrada.getKey();
+            if (eliminados.contains(id)) {
+                pendientes.remove(id);
+                semana.remove(id);
+                RankingTendencias.articuloEliminado(id);
+            } else {
+                sumarSemana(id, hoy, entrada.getValue());
+                RankingTendencias.vistas(id, entrada.getValue(), ahora);
+                total += entrada.getValue();
+            }
+        }
+        calcularMasLeidos();
+        volcados.increment();
+        vistasVolcadas.add(total);
+        ultimoVolcadoMs = System.currentTimeMillis() - inicio;
+    }
+
+    // Devuelve los ids que ya no existen en Articulo (no se les escribe la fila del día)
+    private static Set<Long> escribir(Connection conexion, Map<Long, Long> lote, long hoy) throws SQLException {
+        java.sql.Date dia = java.sql.Date.valueOf(LocalDate.ofEpochDay(hoy));
+        List<Long> ids = new ArrayList<>(lote.keySet());
+        Set<Long> eliminados = new HashSet<>();
+
+        try (PreparedStatement ps = conexion.prepareStatement(SUMAR_TOTAL)) {
+            for (Long id : ids) {
+                ps.setLong(1, lote.get(id));
+                ps.setLong(2, id);
+                ps.addBatch();
+            }
+            int[] filas = ps.executeBatch();
+            for (int i = 0; i < filas.length; i++) {
+                if (filas[i] == 0) eliminados.add(ids.get(i));
+            }
+        }
+        ids.removeAll(eliminados);
+        if (ids.isEmpty()) return eliminados;
+
+        if (conexion.getMetaData().getDatabaseProductName().contains("SQL Server")) {
+            try (PreparedStatement ps = conexion.prepareStatement(SUMAR_DIA_SQL_SERVER)) {
+                for (Long id : ids) {
+                    ps.setLong(1, id);
+                    ps.setDate(2, dia);
+                    ps.setLong(3, lote.get(id));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return eliminados;
+        }
+
+        // Resto de bases: UPDATE en lote e INSERT de las filas que no existían. Los volcados
+        // no se solapan (volcar es synchronized), así que nadie más las inserta en el medio
+        List<Long> nuevos = new ArrayList<>();
+        try (PreparedStatement ps = conexion.prepareStatement(SUMAR_DIA)) {
+            for (Long id : ids) {
+                ps.setLong(1, lote.get(id));
+                ps.setLong(2, id);
+                ps.setDate(3, dia);
+                ps.addBatch();
+            }
+            int[] filas = ps.executeBatch();
+            for (int i = 0; i < filas.length; i++) {
+                if (filas[i] == 0) nuevos.add(ids.get(i));
+            }
+        }
+        if (!nuevos.isEmpty()) {
+            try (PreparedStatement ps = conexion.prepareStatement(INSERTAR_DIA)) {
+                for (Long id : nuevos) {
+                    ps.setLong(1, id);
+                    ps.setDate(2, dia);
+                    ps.setLong(3, lote.get(id));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+        return eliminados;
+    }
+
+    // ---- Ventana de la semana (con el lock de la clase) ----
+
+    // Reasigna a los últimos DIAS días las celdas que quedaron de días anteriores (vaciándolas
+    // en todos los artículos). Devuelve true si cambió alguna
+    private static boolean avanzar(long hoy) {
+        boolean cambio = false;
+        for (long dia = hoy - DIAS + 1; dia <= hoy; dia++) {
+            int celda = (int) Math.floorMod(dia, (long) DIAS);
+            if (diaDeCelda[celda] == dia) continue;
+            semana.paraCadaClave(id -> semana.get(id)[celda] = 0);
+            diaDeCelda[celda] = dia;
+            cambio = true;
+        }
+        return cambio;
+    }
+
+    private static void sumarSemana(long articuloId, long dia, long vistas) {
+        int celda = (int) Math.floorMod(dia, (long) DIAS);
+        if (diaDeCelda[celda] != dia) return;
+        long[] dias = semana.get(articuloId);
+        if (dias == null) {
+            dias = new long[DIAS];
+            semana.put(articuloId, dias);
+        }
+        dias[celda] += vistas;
+    }
+
+    private static void calcularMasLeidos() {
+        // Montículo de mínimos con los MAS_LEIDOS_MAX mayores totales: {id, vistas}
+        PriorityQueue<long[]> mayores = new PriorityQueue<>(MAS_LEIDOS_MAX + 1,
+                (a, b) -> a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(b[0], a[0]));
+        List<Long> vacios = new ArrayList<>();
+        semana.paraCadaClave(id -> {
+            long total = 0;
+            for (long vistas : semana.get(id)) total += vistas;
+            if (total == 0) {
+                vacios.add(id);
+                return;
+            }
+            mayores.add(new long[]{id, total});
+            if (mayores.size() > MAS_LEIDOS_MAX) mayores.poll();
+        });
+        for (Long id : vacios) semana.remove(id);
+        articulosSemana = semana.tamano();
+        if (mayores.isEmpty()) {
+            publicarMasLeidos(Collections.emptyList());
+            return;
+        }
+
+        List<long[]> orden = new ArrayList<>(mayores);
+        orden.sort(mayores.comparator().reversed());
+        List<Long> ids = new ArrayList<>(orden.size());
+        for (long[] par : orden) ids.add(par[0]);
+
+        Map<Long, String> titulos = new HashMap<>();
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            for (Object[] fila : em.createQuery(
+                            "SELECT a.id, a.titulo FROM Articulo a WHERE a.id IN :ids", Object[].class)
+                    .setParameter("ids", ids)
+                    .getResultList()) {
+                titulos.put((Long) fila[0], (String) fila[1]);
+            }
+        } finally {
+            em.close();
+        }
+
+        List<ArticuloVistas> resultado = new ArrayList<>(orden.size());
+        for (long[] par : orden) {
+            String titulo = titulos.get(par[0]);
+            if (titulo == null) {
+                // Eliminado desde el último volcado
+                semana.remove(par[0]);
+            } else {
+                resultado.add(new ArticuloVistas(par[0], titulo, par[1]));
+            }
+        }
+        publicarMasLeidos(Collections.unmodifiableList(resultado));
+    }
+
+    private static void purgar() {
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            int filas = em.createQuery(
+                            "DELETE FROM VistaDiaria v WHERE v.dia < :limite " +
+                                    "OR v.articuloId NOT IN (SELECT a.id FROM Articulo a)")
+                    .setParameter("limite", java.sql.Date.valueOf(LocalDate.now().minusDays(DIAS_RETENER)), TemporalType.DATE)
+                    .executeUpdate();
+            em.getTransaction().commit();
+            if (filas > 0) {
+                System.out.println("Vistas diarias purgadas: " + filas + " fila(s)");
+            }
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        long vistasPendientes = 0;
+        for (LongAdder contador : pendientes.values()) {
+            vistasPendientes += contador.sum();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("articulosContados", pendientes.size());
+        stats.put("vistasPendientes", vistasPendientes);
+        stats.put("volcados", volcados.sum());
+        stats.put("vistasVolcadas", vistasVolcadas.sum());
+        stats.put("fallos", fallos.sum());
+        stats.put("ultimoVolcadoMs", ultimoVolcadoMs);
+        stats.put("articulosSemana", articulosSemana);
+        return stats;
+    }
+}
@@ -0,0 +1,128 @@
+package servicios;
+
+import modelos.Etiqueta;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+public class EtiquetaServicios {
+
+    // Inserta la etiqueta solo si no existe. En SQL Server UPDLOCK + HOLDLOCK bloquean el rango
+    // de la clave hasta el commit: si dos autores crean la misma etiqueta a la vez, el segundo
+    // espera y luego no inserta nada en lugar de chocar con el índice único.
+    private static final String INSERTAR_SQL_SERVER =
+            "INSERT INTO Etiqueta (etiqueta) SELECT ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Etiqueta WITH (UPDLOCK, HOLDLOCK) WHERE etiqueta = ?)";
+    private static final String INSERTAR =
+            "INSERT INTO Etiqueta (etiqueta) SELECT ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Etiqueta WHERE etiqueta = ?)";
+
+    /**
+     * Devuelve las etiquetas con esos nombres y crea las que falten, dentro de la transacción
+     * activa de em. Cuesta una consulta IN si todas existen y, si no, un lote JDBC de inserciones
+     * más otra consulta IN para cargarlas: el número de sentencias no depende de cuántas sean.
+     *
+     * Los nombres se comparan sin distinguir mayúsculas (como la intercalación de SQL Server);
+     * la clave del mapa es el nombre tal como se pidió la primera vez.
+     */
+    public static Map<String, Etiqueta> obtenerOCrear(EntityManager em, Collection<String> nombres) {
+        Map<String, String> pedidos = new LinkedHashMap<>();
+        for (String nombre : nombres) {
+            pedidos.putIfAbsent(normalizar(nombre), nombre);
+        }
+        Map<String, Etiqueta> encontradas = new LinkedHashMap<>();
+        if (pedidos.isEmpty()) return encontradas;
+
+        buscar(em, pedidos.values(), encontradas);
+
+        List<String> faltantes = new ArrayList<>();
+        for (Map.Entry<String, String> pedido : pedidos.entrySet()) {
+            if (!encontradas.containsKey(pedido.getKey())) faltantes.add(pedido.getValue());
+        }
+        if (!faltantes.isEmpty()) {
+            // Las filas se insertan por JDBC en la misma conexión y transacción; la consulta
+            // siguiente las carga como entidades (y las deja en la caché de segundo nivel). La caché
+            // del listado de etiquetas se invalida al asociarlas al artículo (tabla articulo_etiqueta)
+            em.unwrap(Session.class).doWork(conexion -> insertar(conexion, faltantes));
+            buscar(em, faltantes, encontradas);
+        }
+
+        Map<String, Etiqueta> resultado = new LinkedHashMap<>();
+        for (Map.Entry<String, String> pedido : pedidos.entrySet()) {
+            Etiqueta etiqueta = encontradas.get(pedido.getKey());
+            if (etiqueta == null) {
+                throw new IllegalStateException("No se pudo crear la etiqueta " + pedido.getValue());
+            }
+            resultado.put(pedido.getValue(), etiqueta);
+        }
+        return resultado;
+    }
+
+    public static Etiqueta obtenerOCrear(EntityManager em, String nombre) {
+        // Una sola etiqueta: primero por @NaturalId, que con la caché de segundo nivel no consulta
+        Etiqueta existente = em.unwrap(Session.class).bySimpleNaturalId(Etiqueta.class).load(nombre);
+        if (existente != null) return existente;
+        return obtenerOCrear(em, List.of(nombre)).get(nombre);
+    }
+
+    private static void buscar(EntityManager em, Collection<String> nombres, Map<String, Etiqueta> encontradas) {
+        List<Etiqueta> etiquetas = em.createQuery(
+                        "SELECT e FROM Etiqueta e WHERE e.etiqueta IN :nombres", Etiqueta.class)
+                .setParameter("nombres", nombres)
+                .getResultList();
+        for (Etiqueta etiqueta : etiquetas) {
+            encontradas.put(normalizar(etiqueta.getEtiqueta()), etiqueta);
+        }
+    }
+
+    private static void insertar(Connection conexion, List<String> nombres) throws SQLException {
+        String sql = conexion.getMetaData().getDatabaseProductName().contains("SQL Server")
+                ? INSERTAR_SQL_SERVER : INSERTAR;
+        try (PreparedStatement ps = conexion.prepareStatement(sql)) {
+            for (String nombre : nombres) {
+                ps.setString(1, nombre);
+                ps.setString(2, nombre);
+                ps.addBatch();
+            }
+            try {
+                ps.executeBatch();
+                return;
+            } catch (BatchUpdateException e) {
+                if (!esDuplicado(e)) throw e;
+            }
+        }
+        // Otra transacción insertó alguna sin pasar por aquí: se reintenta una a una ignorando
+        // los duplicados, que ya existen y la consulta siguiente encontrará
+        try (PreparedStatement ps = conexion.prepareStatement(sql)) {
+            for (String nombre : nombres) {
+                ps.setString(1, nombre);
+                ps.setString(2, nombre);
+                try {
+                    ps.executeUpdate();
+                } catch (SQLException e) {
+                    if (!esDuplicado(e)) throw e;
+                }
+            }
+        }
+    }
+
+    // Violación de índice único: SQLState 23xxx (SQL Server 2627 / 2601)
+    private static boolean esDuplicado(SQLException e) {
+        String estado = e.getSQLState();
+        return (estado != null && estado.startsWith("23")) || e.getErrorCode() == 2627 || e.getErrorCode() == 2601;
+    }
+
+    private static String normalizar(String nombre) {
+        return nombre.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,143 @@
+package servicios;
+
+import modelos.ArticuloResumen;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TemporalType;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Consultas del listado principal de artículos (/index).
+ * Pagina por cursor sobre (fecha, id) en lugar de OFFSET, de modo que la página N
+ * cuesta lo mismo que la primera. Los totales para el número de páginas los da
+ * AgregadoEtiquetas, sin consultas.
+ * Devuelve proyecciones (ArticuloResumen) en lugar de entidades para no disparar
+ * cargas LAZY por cada fila al renderizar.
+ */
+public class FeedServicios {
+
+    public static final int ARTICULOS_POR_PAGINA = 5;
+
+    public static class Pagina {
+        private final List<ArticuloResumen> articulos;
+        private final String siguienteCursor;
+
+        Pagina(List<ArticuloResumen> articulos, String siguienteCursor) {
+            this.articulos = articulos;
+            this.siguienteCursor = siguienteCursor;
+        }
+
+        public List<ArticuloResumen> getArticulos() {
+            return articulos;
+        }
+
+        // null si no hay más páginas
+        public String getSiguienteCursor() {
+            return siguienteCursor;
+        }
+    }
+
+    /**
+     * Obtiene una página del listado, opcionalmente filtrada por etiqueta.
+     * Siempre son dos consultas, sin importar el tamaño de la página: una proyección con los
+     * datos del artículo y el nombre del autor, y otra con los nombres de las etiquetas.
+     * @param cursor valor devuelto en la página anterior (null o inválido = primera página)
+     */
+    public static Pagina obtenerPagina(EntityManager em, Long etiquetaId, String cursor) {
+        long[] posicion = decodificarCursor(cursor);
+
+        StringBuilder jpql = new StringBuilder(
+                "SELECT new modelos.ArticuloResumen(a.id, a.titulo, a.extracto, a.extractoTruncado, a.fecha, au.nombre, a.totalComentarios) " +
+                "FROM Articulo a LEFT JOIN a.autor au");
+        List<String> condiciones = new ArrayList<>();
+        if (etiquetaId != null) {
+            condiciones.add("EXISTS (SELECT e.id FROM Articulo a2 JOIN a2.etiquetas e WHERE a2 = a AND e.id = :etiquetaId)");
+        }
+        if (posicion != null) {
+            condiciones.add("(a.fecha < :fecha OR (a.fecha = :fecha AND a.id < :id))");
+        }
+        if (!condiciones.isEmpty()) {
+            jpql.append(" WHERE ").append(String.join(" AND ", condiciones));
+        }
+        jpql.append(" ORDER BY a.fecha DESC, a.id DESC");
+
+        TypedQuery<ArticuloResumen> query = em.createQuery(jpql.toString(), ArticuloResumen.class);
+        if (etiquetaId != null) {
+            query.setParameter("etiquetaId", etiquetaId);
+        }
+        if (posicion != null) {
+            query.setParameter("fecha", new Date(posicion[0]), TemporalType.TIMESTAMP);
+            query.setParameter("id", posicion[1]);
+        }
+
+        // Se pide un elemento extra para saber si existe una página siguiente
+        List<ArticuloResumen> articulos = new ArrayList<>(query
+                .setMaxResults(ARTICULOS_POR_PAGINA + 1)
+                .getResultList());
+
+        String siguiente = null;
+        if (articulos.size() > ARTICULOS_POR_PAGINA) {
+            articulos = articulos.subList(0, ARTICULOS_POR_PAGINA);
+            ArticuloResumen ultimo = articulos.get(articulos.size() - 1);
+            siguiente = codificarCursor(ultimo.getFecha(), ultimo.getId());
+        }
+
+        cargarEtiquetas(em, articulos);
+        return new Pagina(articulos, siguiente);
+    }
+
+    // Completa los nombres de etiquetas de todos los artículos de la página en una sola consulta
+    private static void cargarEtiquetas(EntityManager em, List<ArticuloResumen> articulos) {
+        if (articulos.isEmpty()) return;
+
+        Map<Long, ArticuloResumen> porId = new HashMap<>();
+        for (ArticuloResumen articulo : articulos) {
+            porId.put(articulo.getId(), articulo);
+        }
+
+        List<Object[]> filas = em.createQuery(
+                        "SELECT a.id, e.etiqueta FROM Articulo a JOIN a.etiquetas e WHERE a.id IN :ids ORDER BY e.etiqueta",
+                        Object[].class)
+                .setParameter("ids", porId.keySet())
+                .getResultList();
+        for (Object[] fila : filas) {
+            ArticuloResumen articulo = porId.get((Long) fila[0]);
+            String nombre = (String) fila[1];
+            if (articulo != null && !articulo.getEtiquetas().contains(nombre)) {
+                articulo.getEtiquetas().add(nombre);
+            }
+        }
+    }
+
+    static String codificarCursor(Date fecha, Long id) {
+        return fecha.getTime() + "_" + id;
+    }
+
+    // Devuelve {fechaMillis, id} o null si el cursor no es válido ("millis_id", ambos >= 0)
+    static long[] decodificarCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) return null;
+        int separador = cursor.indexOf('_');
+        if (separador <= 0) return null;
+        try {
+            long millis = Long.parseLong(cursor.substring(0, separador));
+            long id = Long.parseLong(cursor.substring(separador + 1));
+            return millis >= 0 && id >= 0 ? new long[]{millis, id} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * El cursor en su forma canónica, o null si falta o no es válido (primera página). Sirve
+     * de clave de caché: "0001_02", "+1_2" y "1_2" son la misma página.
+     */
+    public static String normalizarCursor(String cursor) {
+        long[] posicion = decodificarCursor(cursor);
+        return posicion != null ? posicion[0] + "_" + posicion[1] : null;
+    }
+}
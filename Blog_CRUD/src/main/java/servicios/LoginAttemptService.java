@@ -1,13 +1,25 @@
 package servicios;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import app.java.DataSourceConfig;
+import app.java.Planificador;
+import app.java.TablaAcotada;
+
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.ToLongFunction;
 
 /**
  * Servicio para prevenir ataques de fuerza bruta en el login.
  * Implementa bloqueo temporal de cuentas tras múltiples intentos fallidos.
+ *
+ * La memoria es fija aunque lleguen miles de usernames o IPs distintos: cada tabla tiene un
+ * máximo de entradas (LOGIN_MAX_ENTRADAS, ver TablaAcotada) y al llenarse se desaloja una
+ * entrada vieja elegida entre una pequeña muestra al azar. Un barrido programado cada minuto quita las que ya expiraron.
+ *
+ * Con LOGIN_IP_MODO=sketch los intentos por IP se cuentan en un count-min sketch de tamaño
+ * fijo en lugar de una tabla: no guarda las IPs, así que su memoria no depende del ataque.
  */
 public class LoginAttemptService {
 
@@ -15,45 +27,101 @@ public class LoginAttemptService {
     private static final int LOCKOUT_DURATION_MINUTES = 15; // Duración del bloqueo en minutos
     private static final int ATTEMPT_RESET_MINUTES = 30; // Tiempo para resetear el contador
 
+    private static final long LOCKOUT_MS = TimeUnit.MINUTES.toMillis(LOCKOUT_DURATION_MINUTES);
+    private static final long RESET_MS = TimeUnit.MINUTES.toMillis(ATTEMPT_RESET_MINUTES);
+
+    // Máximo de entradas por tabla y cuántas se revisan para elegir cuál desalojar
+    private static final int MAX_ENTRADAS = Math.max(100, DataSourceConfig.getInt("LOGIN_MAX_ENTRADAS", 10_000));
+    private static final int MUESTRA_DESALOJO = 8;
+
+    private static final boolean IP_SKETCH = "sketch".equalsIgnoreCase(DataSourceConfig.get("LOGIN_IP_MODO"));
+    private static final int SKETCH_PROFUNDIDAD = 4;
+    private static final int SKETCH_ANCHO = potenciaDeDos(DataSourceConfig.getInt("LOGIN_SKETCH_ANCHO", 4096));
+
     // Almacena intentos fallidos por username
-    private static final Map<String, LoginAttemptData> attemptCache = new ConcurrentHashMap<>();
+    private static final TablaAcotada<LoginAttemptData> attemptCache = new TablaAcotada<>(MAX_ENTRADAS, MUESTRA_DESALOJO);
 
-    // Almacena intentos fallidos por IP (protección adicional)
-    private static final Map<String, LoginAttemptData> ipAttemptCache = new ConcurrentHashMap<>();
+    // Almacena intentos fallidos por IP (protección adicional); no se usa en modo sketch
+    private static final TablaAcotada<LoginAttemptData> ipAttemptCache = new TablaAcotada<>(MAX_ENTRADAS, MUESTRA_DESALOJO);
 
+    // Modo sketch: intentos por IP de la ventana actual y de la anterior (cada una dura LOCKOUT_MS)
+    private static volatile Sketch sketchActual = new Sketch();
+    private static volatile Sketch sketchAnterior = new Sketch();
+    private static volatile long finVentana = System.currentTimeMillis() + LOCKOUT_MS;
+
+    // Tiempos en epoch millis; 0 = sin bloqueo. Se modifican con el lock del propio objeto.
     private static class LoginAttemptData {
         int attempts;
-        LocalDateTime lastAttempt;
-        LocalDateTime lockoutUntil;
+        long lastAttempt;
+        long lockoutUntil;
+
+        LoginAttemptData(long now) {
+            this.lastAttempt = now;
+        }
+    }
 
-        LoginAttemptData() {
-            this.attempts = 0;
-            this.lastAttempt = LocalDateTime.now();
-            this.lockoutUntil = null;
+    /**
+     * Contadores de un count-min sketch: cada IP incrementa una celda por fila y su cuenta
+     * estimada es el mínimo de esas celdas (nunca menor que la real).
+     */
+    private static final class Sketch {
+        final AtomicIntegerArray celdas = new AtomicIntegerArray(SKETCH_PROFUNDIDAD * SKETCH_ANCHO);
+
+        int incrementar(String clave) {
+            int h1 = mezclar(clave.hashCode());
+            int h2 = mezclar(h1) | 1;
+            int minimo = Integer.MAX_VALUE;
+            for (int fila = 0; fila < SKETCH_PROFUNDIDAD; fila++) {
+                int indice = fila * SKETCH_ANCHO + ((h1 + fila * h2) & (SKETCH_ANCHO - 1));
+                minimo = Math.min(minimo, celdas.incrementAndGet(indice));
+            }
+            return minimo;
+        }
+
+        int estimar(String clave) {
+            int h1 = mezclar(clave.hashCode());
+            int h2 = mezclar(h1) | 1;
+            int minimo = Integer.MAX_VALUE;
+            for (int fila = 0; fila < SKETCH_PROFUNDIDAD; fila++) {
+                int indice = fila * SKETCH_ANCHO + ((h1 + fila * h2) & (SKETCH_ANCHO - 1));
+                minimo = Math.min(minimo, celdas.get(indice));
+            }
+            return minimo;
         }
     }
 
+    static {
+        Planificador.cadaCierto("limpieza de intentos de login", LoginAttemptService::cleanupOldEntries, 1, TimeUnit.MINUTES);
+    }
+
     /**
      * Registra un intento de login fallido para un usuario y una IP.
      */
     public static void loginFailed(String username, String ipAddress) {
+        long now = System.currentTimeMillis();
         if (username != null && !username.isEmpty()) {
-            registerFailedAttempt(attemptCache, username.toLowerCase());
+            registerFailedAttempt(attemptCache, username.toLowerCase(), now);
         }
         if (ipAddress != null && !ipAddress.isEmpty()) {
-            registerFailedAttempt(ipAttemptCache, ipAddress);
+            if (IP_SKETCH) {
+                rotarSketch(now);
+                sketchActual.incrementar(ipAddress);
+            } else {
+                registerFailedAttempt(ipAttemptCache, ipAddress, now);
+            }
         }
     }
 
     /**
      * Registra un intento de login exitoso, limpiando los contadores.
+     * En modo sketch la cuenta de la IP no se puede borrar y expira con su ventana.
      */
     public static void loginSucceeded(String username, String ipAddress) {
         if (username != null && !username.isEmpty()) {
-            attemptCache.remove(username.toLowerCase());
+            attemptCache.quitar(username.toLowerCase());
         }
-        if (ipAddress != null && !ipAddress.isEmpty()) {
-            ipAttemptCache.remove(ipAddress);
+        if (ipAddress != null && !ipAddress.isEmpty() && !IP_SKETCH) {
+            ipAttemptCache.quitar(ipAddress);
         }
     }
 
@@ -62,10 +130,11 @@ public class LoginAttemptService {
      * @return true si el usuario está bloqueado, false en caso contrario
      */
     public static boolean isBlocked(String username, String ipAddress) {
+        long now = System.currentTimeMillis();
         boolean userBlocked = username != null && !username.isEmpty()
-            && isKeyBlocked(attemptCache, username.toLowerCase());
+            && isKeyBlocked(attemptCache, username.toLowerCase(), now);
         boolean ipBlocked = ipAddress != null && !ipAddress.isEmpty()
-            && isKeyBlocked(ipAttemptCache, ipAddress);
+            && isIpBlocked(ipAddress, now);
 
         return userBlocked || ipBlocked;
     }
@@ -75,26 +144,20 @@ public class LoginAttemptService {
      * @return minutos restantes de bloqueo, o 0 si no está bloqueado
      */
     public static long getRemainingLockoutMinutes(String username, String ipAddress) {
+        long now = System.currentTimeMillis();
         long userLockout = 0;
         long ipLockout = 0;
 
         if (username != null && !username.isEmpty()) {
-            LoginAttemptData data = attemptCache.get(username.toLowerCase());
-            if (data != null && data.lockoutUntil != null) {
-                userLockout = ChronoUnit.MINUTES.between(LocalDateTime.now(), data.lockoutUntil);
-                if (userLockout < 0) userLockout = 0;
-            }
+            userLockout = lockoutRemainingMs(attemptCache.get(username.toLowerCase()), now);
         }
 
         if (ipAddress != null && !ipAddress.isEmpty()) {
-            LoginAttemptData data = ipAttemptCache.get(ipAddress);
-            if (data != null && data.lockoutUntil != null) {
-                ipLockout = ChronoUnit.MINUTES.between(LocalDateTime.now(), data.lockoutUntil);
-                if (ipLockout < 0) ipLockout = 0;
-            }
+            ipLockout = IP_SKETCH ? sketchLockoutRemainingMs(ipAddress, now)
+                    : lockoutRemainingMs(ipAttemptCache.get(ipAddress), now);
         }
 
-        return Math.max(userLockout, ipLockout);
+        return TimeUnit.MILLISECONDS.toMinutes(Math.max(userLockout, ipLockout));
     }
 
     /**
@@ -110,80 +173,172 @@ public class LoginAttemptService {
             return MAX_ATTEMPTS;
         }
 
-        // Si el último intento fue hace mucho tiempo, resetear
-        if (ChronoUnit.MINUTES.between(data.lastAttempt, LocalDateTime.now()) > ATTEMPT_RESET_MINUTES) {
-            attemptCache.remove(username.toLowerCase());
-            return MAX_ATTEMPTS;
-        }
+        synchronized (data) {
+            // Si el último intento fue hace mucho tiempo, resetear
+            if (System.currentTimeMillis() - data.lastAttempt > RESET_MS) {
+                attemptCache.quitar(username.toLowerCase(), data);
+                return MAX_ATTEMPTS;
+            }
 
-        return Math.max(0, MAX_ATTEMPTS - data.attempts);
+            return Math.max(0, MAX_ATTEMPTS - data.attempts);
+        }
     }
 
     /**
-     * Limpia entradas antiguas del cache (mantenimiento).
+     * Limpia entradas antiguas del cache (mantenimiento). Se ejecuta cada minuto en el Planificador.
      */
     public static void cleanupOldEntries() {
-        LocalDateTime now = LocalDateTime.now();
-
-        attemptCache.entrySet().removeIf(entry -> {
-            LoginAttemptData data = entry.getValue();
-            return ChronoUnit.MINUTES.between(data.lastAttempt, now) > ATTEMPT_RESET_MINUTES
-                && (data.lockoutUntil == null || now.isAfter(data.lockoutUntil));
-        });
+        long now = System.currentTimeMillis();
+        attemptCache.quitarSi(data -> isExpired(data, now));
+        ipAttemptCache.quitarSi(data -> isExpired(data, now));
+        if (IP_SKETCH) {
+            rotarSketch(now);
+        }
+    }
 
-        ipAttemptCache.entrySet().removeIf(entry -> {
-            LoginAttemptData data = entry.getValue();
-            return ChronoUnit.MINUTES.between(data.lastAttempt, now) > ATTEMPT_RESET_MINUTES
-                && (data.lockoutUntil == null || now.isAfter(data.lockoutUntil));
-        });
+    public static Map<String, Object> getEstadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("usuarios", attemptCache.tamano());
+        stats.put("ips", IP_SKETCH ? "sketch" : ipAttemptCache.tamano());
+        stats.put("capacidad", MAX_ENTRADAS);
+        stats.put("desalojados", attemptCache.desalojados() + ipAttemptCache.desalojados());
+        stats.put("sinLugar", attemptCache.sinLugar() + ipAttemptCache.sinLugar());
+        stats.put("modoIp", IP_SKETCH ? "sketch" : "mapa");
+        if (IP_SKETCH) {
+            stats.put("sketchCeldas", SKETCH_PROFUNDIDAD * SKETCH_ANCHO);
+        }
+        return stats;
     }
 
     // Métodos privados auxiliares
 
-    private static void registerFailedAttempt(Map<String, LoginAttemptData> cache, String key) {
-        LoginAttemptData data = cache.computeIfAbsent(key, k -> new LoginAttemptData());
+    private static void registerFailedAttempt(TablaAcotada<LoginAttemptData> cache, String key, long now) {
+        LoginAttemptData data = cache.obtenerOCrear(key, () -> new LoginAttemptData(now), prioridadDesalojo(now));
 
-        LocalDateTime now = LocalDateTime.now();
-
-        // Si el último intento fue hace mucho tiempo, resetear el contador
-        if (ChronoUnit.MINUTES.between(data.lastAttempt, now) > ATTEMPT_RESET_MINUTES) {
-            data.attempts = 1;
-        } else {
-            data.attempts++;
-        }
+        synchronized (data) {
+            // Si el último intento fue hace mucho tiempo, resetear el contador
+            if (now - data.lastAttempt > RESET_MS) {
+                data.attempts = 1;
+            } else {
+                data.attempts++;
+            }
 
-        data.lastAttempt = now;
+            data.lastAttempt = now;
 
-        // Si se alcanzó el máximo de intentos, aplicar bloqueo
-        if (data.attempts >= MAX_ATTEMPTS) {
-            data.lockoutUntil = now.plusMinutes(LOCKOUT_DURATION_MINUTES);
+            // Si se alcanzó el máximo de intentos, aplicar bloqueo
+            if (data.attempts >= MAX_ATTEMPTS) {
+                data.lockoutUntil = now + LOCKOUT_MS;
+            }
         }
     }
 
-    private static boolean isKeyBlocked(Map<String, LoginAttemptData> cache, String key) {
+    private static boolean isKeyBlocked(TablaAcotada<LoginAttemptData> cache, String key, long now) {
         LoginAttemptData data = cache.get(key);
 
-        if (data == null || data.lockoutUntil == null) {
+        if (data == null) {
             return false;
         }
 
-        LocalDateTime now = LocalDateTime.now();
+        synchronized (data) {
+            if (data.lockoutUntil == 0) {
+                return false;
+            }
 
-        // Si el bloqueo ya expiró, limpiar y retornar false
-        if (now.isAfter(data.lockoutUntil)) {
-            cache.remove(key);
-            return false;
+            // Si el bloqueo ya expiró, limpiar y retornar false
+            if (now > data.lockoutUntil) {
+                cache.quitar(key, data);
+                return false;
+            }
         }
 
         return true;
     }
 
+    private static boolean isIpBlocked(String ipAddress, long now) {
+        if (!IP_SKETCH) {
+            return isKeyBlocked(ipAttemptCache, ipAddress, now);
+        }
+        rotarSketch(now);
+        return sketchActual.estimar(ipAddress) >= MAX_ATTEMPTS
+            || sketchAnterior.estimar(ipAddress) >= MAX_ATTEMPTS;
+    }
+
+    private static long lockoutRemainingMs(LoginAttemptData data, long now) {
+        if (data == null) return 0;
+        synchronized (data) {
+            return data.lockoutUntil != 0 ? Math.max(0, data.lockoutUntil - now) : 0;
+        }
+    }
+
+    // Una IP bloqueada en la ventana actual sigue bloqueada durante la siguiente
+    private static long sketchLockoutRemainingMs(String ipAddress, long now) {
+        rotarSketch(now);
+        if (sketchActual.estimar(ipAddress) >= MAX_ATTEMPTS) {
+            return finVentana + LOCKOUT_MS - now;
+        }
+        if (sketchAnterior.estimar(ipAddress) >= MAX_ATTEMPTS) {
+            return Math.max(0, finVentana - now);
+        }
+        return 0;
+    }
+
+    private static boolean isExpired(LoginAttemptData data, long now) {
+        synchronized (data) {
+            return now - data.lastAttempt > RESET_MS && now > data.lockoutUntil;
+        }
+    }
+
+    /**
+     * Tabla llena: se desaloja la entrada de menor prioridad de la muestra. Primero una ya
+     * expirada, luego la más antigua sin bloqueo activo (para no liberar cuentas bloqueadas
+     * mientras haya otra opción) y por último la más antigua con bloqueo.
+     */
+    private static ToLongFunction<LoginAttemptData> prioridadDesalojo(long now) {
+        return data -> {
+            synchronized (data) {
+                if (now - data.lastAttempt > RESET_MS && now > data.lockoutUntil) {
+                    return Long.MIN_VALUE;
+                }
+                return (now <= data.lockoutUntil ? 1L << 62 : 0) + data.lastAttempt;
+            }
+        };
+    }
+
+    private static void rotarSketch(long now) {
+        if (now < finVentana) return;
+        synchronized (LoginAttemptService.class) {
+            if (now < finVentana) return;
+            // Si pasaron dos ventanas o más sin actividad, ambas quedan vacías
+            sketchAnterior = now < finVentana + LOCKOUT_MS ? sketchActual : new Sketch();
+            sketchActual = new Sketch();
+            finVentana = now + LOCKOUT_MS;
+        }
+    }
+
+    private static int mezclar(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int potenciaDeDos(int valor) {
+        int acotado = Math.max(64, Math.min(valor, 1 << 20));
+        return Integer.highestOneBit(acotado - 1) << 1;
+    }
+
     /**
      * Método para testing: resetear todos los intentos.
      */
     public static void resetAllAttempts() {
-        attemptCache.clear();
-        ipAttemptCache.clear();
+        attemptCache.limpiar();
+        ipAttemptCache.limpiar();
+        synchronized (LoginAttemptService.class) {
+            sketchActual = new Sketch();
+            sketchAnterior = new Sketch();
+            finVentana = System.currentTimeMillis() + LOCKOUT_MS;
+        }
     }
 }
-
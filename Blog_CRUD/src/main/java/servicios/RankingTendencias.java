@@ -0,0 +1,164 @@
+package servicios;
+
+import app.java.DataSourceConfig;
+import app.java.DatabaseUtil;
+import modelos.ArticuloTendencia;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Artículos en tendencia (/tendencias y /api/tendencias): cada vista suma PESO_VISTA (1) y cada
+ * comentario TENDENCIAS_PESO_COMENTARIO (5), y todo decae a la mitad cada
+ * TENDENCIAS_VIDA_MEDIA_HORAS horas (12).
+ *
+ * El puntaje se guarda en escala logarítmica y referido a un instante fijo:
+ * log(suma de peso * e^(lambda * (t - ORIGEN))). Como todos los puntajes decaen al mismo ritmo,
+ * ese valor no cambia con el tiempo y el orden entre artículos tampoco: un evento solo
+ * reubica su artículo en el ConcurrentSkipListSet (O(log n)), sin recorrer los demás ni la
+ * base de datos. El puntaje de hoy es e^(log - lambda * (ahora - ORIGEN)).
+ *
+ * Las vistas llegan de ContadorVistas en cada volcado y, al arrancar, desde VistaDiaria; los
+ * comentarios, de CommentController. Se conservan los TENDENCIAS_MAX (2000) mejores.
+ */
+public class RankingTendencias {
+
+    private static final double PESO_VISTA = 1.0;
+    private static final double PESO_COMENTARIO = Math.max(0, DataSourceConfig.getInt("TENDENCIAS_PESO_COMENTARIO", 5));
+    private static final double LAMBDA = Math.log(2)
+            / (Math.max(1, DataSourceConfig.getLong("TENDENCIAS_VIDA_MEDIA_HORAS", 12)) * 3_600_000.0);
+    private static final int MAXIMO = Math.max(1, DataSourceConfig.getInt("TENDENCIAS_MAX", 2000));
+    private static final long ORIGEN = System.currentTimeMillis();
+    // Consultas de títulos por llamada a tendencias() si hay artículos que ya no existen
+    private static final int MAX_TANDAS = 3;
+
+    private static final class Entrada implements Comparable<Entrada> {
+        final long id;
+        final double log;
+
+        Entrada(long id, double log) {
+            this.id = id;
+            this.log = log;
+        }
+
+        // Mayor puntaje primero; a igual puntaje, el id menor
+        @Override
+        public int compareTo(Entrada otra) {
+            int c = Double.compare(otra.log, log);
+            return c != 0 ? c : Long.compare(id, otra.id);
+        }
+    }
+
+    // Las lecturas recorren el set sin lock; las escrituras se hacen con el lock de la clase
+    private static final ConcurrentSkipListSet<Entrada> ranking = new ConcurrentSkipListSet<>();
+    private static final Map<Long, Entrada> actuales = new ConcurrentHashMap<>();
+
+    private static final LongAdder eventos = new LongAdder();
+    private static final LongAdder descartados = new LongAdder();
+
+    public static void vistas(long articuloId, long cantidad, long momento) {
+        if (cantidad > 0) sumar(articuloId, PESO_VISTA * cantidad, momento);
+    }
+
+    public static void comentario(long articuloId) {
+        if (PESO_COMENTARIO > 0) sumar(articuloId, PESO_COMENTARIO, System.currentTimeMillis());
+    }
+
+    public static synchronized void articuloEliminado(long articuloId) {
+        Entrada entrada = actuales.remove(articuloId);
+        if (entrada != null) ranking.remove(entrada);
+    }
+
+    private static synchronized void sumar(long articuloId, double peso, long momento) {
+        double log = Math.log(peso) + LAMBDA * (momento - ORIGEN);
+        Entrada anterior = actuales.get(articuloId);
+        if (anterior != null) {
+            // log(e^a + e^b) sin desbordar
+            double mayor = Math.max(anterior.log, log);
+            log = mayor + Math.log1p(Math.exp(Math.min(anterior.log, log) - mayor));
+        }
+        Entrada nueva = new Entrada(articuloId, log);
+        // Primero se agrega la nueva: una lectura concurrente puede ver las dos (se queda con
+        // la primera, que es la nueva porque el puntaje solo sube) pero nunca ninguna
+        ranking.add(nueva);
+        if (anterior != null) ranking.remove(anterior);
+        actuales.put(articuloId, nueva);
+        eventos.increment();
+
+        while (actuales.size() > MAXIMO) {
+            Entrada ultima = ranking.pollLast();
+            if (ultima == null) break;
+            actuales.remove(ultima.id, ultima);
+            descartados.increment();
+        }
+    }
+
+    /**
+     * Los primeros 'limite' artículos con su puntaje a este momento. El orden sale del set sin
+     * lock; los títulos, de una consulta por tanda de ids. Los artículos que ya no existen se
+     * quitan del ranking y se sigue leyendo hasta completar 'limite' (como mucho MAX_TANDAS
+     * consultas).
+     */
+    public static List<ArticuloTendencia> tendencias(int limite) {
+        double ahora = LAMBDA * (System.currentTimeMillis() - ORIGEN);
+        List<ArticuloTendencia> resultado = new ArrayList<>(limite);
+        Set<Long> vistos = new HashSet<>();
+        Iterator<Entrada> it = ranking.iterator();
+        for (int tanda = 0; tanda < MAX_TANDAS && resultado.size() < limite && it.hasNext(); tanda++) {
+            List<Entrada> pendientes = new ArrayList<>();
+            while (pendientes.size() < limite - resultado.size() && it.hasNext()) {
+                Entrada entrada = it.next();
+                if (vistos.add(entrada.id)) pendientes.add(entrada);
+            }
+            if (pendientes.isEmpty()) break;
+
+            Map<Long, String> titulos = titulos(pendientes);
+            for (Entrada entrada : pendientes) {
+                String titulo = titulos.get(entrada.id);
+                if (titulo != null) {
+                    resultado.add(new ArticuloTendencia(entrada.id, titulo, Math.exp(entrada.log - ahora)));
+                } else {
+                    articuloEliminado(entrada.id);
+                }
+            }
+        }
+        return resultado.isEmpty() ? Collections.emptyList() : resultado;
+    }
+
+    private static Map<Long, String> titulos(List<Entrada> entradas) {
+        List<Long> ids = new ArrayList<>(entradas.size());
+        for (Entrada entrada : entradas) ids.add(entrada.id);
+        Map<Long, String> titulos = new HashMap<>();
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            for (Object[] fila : em.createQuery(
+                            "SELECT a.id, a.titulo FROM Articulo a WHERE a.id IN :ids", Object[].class)
+                    .setParameter("ids", ids)
+                    .getResultList()) {
+                titulos.put((Long) fila[0], (String) fila[1]);
+            }
+        } finally {
+            em.close();
+        }
+        return titulos;
+    }
+
+    public static Map<String, Object> getEstadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("articulos", actuales.size());
+        stats.put("eventos", eventos.sum());
+        stats.put("descartados", descartados.sum());
+        return stats;
+    }
+}
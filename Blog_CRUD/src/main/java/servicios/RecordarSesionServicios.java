@@ -0,0 +1,211 @@
+package servicios;
+
+import app.java.DataSourceConfig;
+import app.java.DatabaseUtil;
+import modelos.User;
+import modelos.UsuarioSesion;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.persistence.EntityManager;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tokens de la cookie "Recordar usuario".
+ * Formato: id.expira.nonce.version.firma, donde firma = HMAC-SHA256(id.expira.nonce.version)
+ * con la clave REMEMBER_ME_SECRET. Verificarlo cuesta un HMAC; los tokens ya verificados se
+ * guardan con su UsuarioSesion en una caché acotada, así el auto-login no consulta la base de datos.
+ *
+ * Revocación: cada usuario tiene un versionToken. Al cerrar sesión o cambiar la contraseña se
+ * incrementa y todos los tokens emitidos con la versión anterior dejan de ser válidos.
+ */
+public class RecordarSesionServicios {
+
+    public static final int DURACION_SEGUNDOS = 7 * 24 * 60 * 60;
+
+    private static final int CACHE_MAX = Math.max(16, DataSourceConfig.getInt("REMEMBER_ME_CACHE", 1024));
+    private static final String ALGORITMO = "HmacSHA256";
+
+    private static final SecureRandom aleatorio = new SecureRandom();
+    private static final Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder base64Decoder = Base64.getUrlDecoder();
+
+    private static final SecretKeySpec clave = cargarClave();
+
+    // Mac no es thread-safe: una instancia por hilo
+    private static final ThreadLocal<Mac> mac = ThreadLocal.withInitial(() -> {
+        try {
+            Mac instancia = Mac.getInstance(ALGORITMO);
+            instancia.init(clave);
+            return instancia;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITMO + " no disponible", e);
+        }
+    });
+
+    // token -> sesión ya verificada (LRU)
+    private static final Map<String, Verificado> verificados = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Verificado> eldest) {
+            return size() > CACHE_MAX;
+        }
+    };
+
+    private static final class Verificado {
+        final UsuarioSesion usuario;
+        final long expira;
+
+        Verificado(UsuarioSesion usuario, long expira) {
+            this.usuario = usuario;
+            this.expira = expira;
+        }
+    }
+
+    private static SecretKeySpec cargarClave() {
+        String secreto = DataSourceConfig.get("REMEMBER_ME_SECRET");
+        byte[] bytes;
+        if (secreto == null || secreto.isBlank()) {
+            // Sin clave configurada los tokens solo valen hasta que se reinicie el servidor
+            System.err.println("Advertencia: REMEMBER_ME_SECRET no está configurada, se usa una clave temporal");
+            bytes = new byte[32];
+            aleatorio.nextBytes(bytes);
+        } else {
+            bytes = secreto.getBytes(StandardCharsets.UTF_8);
+        }
+        return new SecretKeySpec(bytes, ALGORITMO);
+    }
+
+    /**
+     * Crea el token para la cookie de un usuario recién autenticado.
+     */
+    public static String emitir(User usuario) {
+        long expira = System.currentTimeMillis() / 1000 + DURACION_SEGUNDOS;
+        byte[] nonce = new byte[16];
+        aleatorio.nextBytes(nonce);
+        String datos = usuario.getId() + "." + expira + "." + base64.encodeToString(nonce) + "." + versionDe(usuario);
+        String token = datos + "." + firmar(datos);
+
+        synchronized (verificados) {
+            verificados.put(token, new Verificado(UsuarioSesion.desde(usuario), expira));
+        }
+        return token;
+    }
+
+    /**
+     * Devuelve el usuario del token, o null si el token es inválido, expiró o fue revocado.
+     * Un token ya visto se resuelve desde la caché sin recalcular la firma ni ir a la base de datos.
+     */
+    public static UsuarioSesion verificar(String token) {
+        if (token == null || token.isEmpty()) return null;
+        long ahora = System.currentTimeMillis() / 1000;
+
+        Verificado verificado;
+        synchronized (verificados) {
+            verificado = verificados.get(token);
+        }
+        if (verificado != null) {
+            if (verificado.expira > ahora) return verificado.usuario;
+            olvidar(token);
+            return null;
+        }
+
+        String[] partes = token.split("\\.");
+        if (partes.length != 5) return null;
+
+        long id;
+        long expira;
+        int version;
+        try {
+            id = Long.parseLong(partes[0]);
+            expira = Long.parseLong(partes[1]);
+            version = Integer.parseInt(partes[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (expira <= ahora) return null;
+
+        String datos = partes[0] + "." + partes[1] + "." + partes[2] + "." + partes[3];
+        byte[] firmaRecibida;
+        try {
+            firmaRecibida = base64Decoder.decode(partes[4]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // Comparación en tiempo constante
+        if (!MessageDigest.isEqual(calcularFirma(datos), firmaRecibida)) return null;
+
+        // Firma correcta: solo falta comprobar que no se haya revocado
+        EntityManager em = DatabaseUtil.getEntityManager();
+        User usuario;
+        try {
+            usuario = em.find(User.class, id);
+        } finally {
+            em.close();
+        }
+        if (usuario == null || versionDe(usuario) != version) return null;
+
+        UsuarioSesion sesion = UsuarioSesion.desde(usuario);
+        synchronized (verificados) {
+            verificados.put(token, new Verificado(sesion, expira));
+        }
+        return sesion;
+    }
+
+    /**
+     * Invalida todos los tokens del usuario (cerrar sesión, cambio de contraseña).
+     */
+    public static void revocar(Long usuarioId) {
+        if (usuarioId == null) return;
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.createQuery("UPDATE User u SET u.versionToken = COALESCE(u.versionToken, 0) + 1 WHERE u.id = :id")
+                    .setParameter("id", usuarioId)
+                    .executeUpdate();
+            em.getTransaction().commit();
+        } catch (Exception e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            System.err.println("No se pudieron revocar los tokens del usuario " + usuarioId + ": " + e.getMessage());
+        } finally {
+            em.close();
+        }
+        olvidarUsuario(usuarioId);
+    }
+
+    /**
+     * Quita de la caché los tokens del usuario para que el próximo auto-login lea sus datos
+     * actualizados (roles, nombre, foto) o falle si fue eliminado.
+     */
+    public static void olvidarUsuario(Long usuarioId) {
+        if (usuarioId == null) return;
+        synchronized (verificados) {
+            verificados.values().removeIf(v -> usuarioId.equals(v.usuario.getId()));
+        }
+    }
+
+    private static void olvidar(String token) {
+        synchronized (verificados) {
+            verificados.remove(token);
+        }
+    }
+
+    private static int versionDe(User usuario) {
+        return usuario.getVersionToken() != null ? usuario.getVersionToken() : 0;
+    }
+
+    private static String firmar(String datos) {
+        return base64.encodeToString(calcularFirma(datos));
+    }
+
+    private static byte[] calcularFirma(String datos) {
+        return mac.get().doFinal(datos.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,383 @@
+package servicios;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Segmento inmutable del índice de búsqueda, guardado en un archivo y leído con un
+ * MappedByteBuffer: las listas de postings y los campos guardados (título, extracto, autor)
+ * se leen del mapeo sin copiarlos al heap; solo la tabla de documentos y el diccionario de
+ * términos se cargan al abrirlo.
+ *
+ * Formato (big-endian):
+ *   cabecera:    MAGIC, VERSION, nDocs, nTerminos, largoTotal (long)
+ *   documentos:  nDocs x (id long, sello long, largo int, offsetGuardado int)
+ *   diccionario: nTerminos x (término UTF-8 con largo short, df int, offsetPostings int)
+ *   postings:    por término, df x (ordinal int, tf int), ordenados por ordinal
+ *   guardados:   por documento, título, extracto y autor (UTF-8 con largo int) y fecha long
+ */
+final class SegmentoBusqueda {
+
+    private static final int MAGIC = 0x42555331; // "BUS1"
+    private static final int VERSION = 1;
+
+    /**
+     * Documento ya analizado: frecuencia ponderada de cada término y los campos que se
+     * muestran en los resultados.
+     */
+    static final class Documento {
+        final long id;
+        final long sello;
+        final Map<String, Integer> terminos;
+        final int largo;
+        final String titulo;
+        final String extracto;
+        final String autor;
+        final long fecha;
+
+        Documento(long id, long sello, Map<String, Integer> terminos, String titulo, String extracto,
+                  String autor, long fecha) {
+            this.id = id;
+            this.sello = sello;
+            this.terminos = terminos;
+            int suma = 0;
+            for (int tf : terminos.values()) suma += tf;
+            this.largo = suma;
+            this.titulo = titulo;
+            this.extracto = extracto;
+            this.autor = autor;
+            this.fecha = fecha;
+        }
+    }
+
+    // Recibe cada posting de un término sin crear objetos
+    interface Postings {
+        void aceptar(int ordinal, int tf);
+    }
+
+    final Path archivo;
+    private final ByteBuffer datos;
+    final long[] ids;
+    final long[] sellos;
+    final int[] largos;
+    private final int[] guardados;
+    final long largoTotal;
+    // término -> {offsetPostings, df}
+    private final Map<String, int[]> diccionario;
+    private final Map<Long, Integer> ordinales;
+
+    private SegmentoBusqueda(Path archivo, ByteBuffer datos, long[] ids, long[] sellos, int[] largos,
+                             int[] guardados, long largoTotal, Map<String, int[]> diccionario) {
+        this.archivo = archivo;
+        this.datos = datos;
+        this.ids = ids;
+        this.sellos = sellos;
+        this.largos = largos;
+        this.guardados = guardados;
+        this.largoTotal = largoTotal;
+        this.diccionario = diccionario;
+        this.ordinales = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            ordinales.put(ids[i], i);
+        }
+    }
+
+    static SegmentoBusqueda vacio() {
+        return new SegmentoBusqueda(null, ByteBuffer.allocate(0), new long[0], new long[0], new int[0],
+                new int[0], 0, new HashMap<>());
+    }
+
+    int cantidadDocumentos() {
+        return ids.length;
+    }
+
+    int cantidadTerminos() {
+        return diccionario.size();
+    }
+
+    long bytes() {
+        return datos.capacity();
+    }
+
+    // -1 si el documento no está en el segmento
+    int ordinal(long id) {
+        Integer ordinal = ordinales.get(id);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    int df(String termino) {
+        int[] entrada = diccionario.get(termino);
+        return entrada != null ? entrada[1] : 0;
+    }
+
+    void recorrer(String termino, Postings postings) {
+        int[] entrada = diccionario.get(termino);
+        if (entrada == null) return;
+        int posicion = entrada[0];
+        for (int i = 0; i < entrada[1]; i++, posicion += 8) {
+            // Lecturas absolutas: no cambian el estado del buffer y se pueden hacer desde varios hilos
+            postings.aceptar(datos.getInt(posicion), datos.getInt(posicion + 4));
+        }
+    }
+
+    String titulo(int ordinal) {
+        return leerCadena(guardados[ordinal]);
+    }
+
+    String extracto(int ordinal) {
+        int posicion = guardados[ordinal];
+        return leerCadena(posicion + 4 + datos.getInt(posicion));
+    }
+
+    String autor(int ordinal) {
+        int posicion = guardados[ordinal];
+        posicion += 4 + datos.getInt(posicion);
+        posicion += 4 + datos.getInt(posicion);
+        return leerCadena(posicion);
+    }
+
+    long fecha(int ordinal) {
+        int posicion = guardados[ordinal];
+        for (int i = 0; i < 3; i++) {
+            posicion += 4 + datos.getInt(posicion);
+        }
+        return datos.getLong(posicion);
+    }
+
+    private String leerCadena(int posicion) {
+        int largo = datos.getInt(posicion);
+        byte[] bytes = new byte[largo];
+        ByteBuffer copia = datos.duplicate();
+        copia.position(posicion + 4);
+        copia.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reconstruye los documentos del segmento (salvo los excluidos) para fusionarlos en uno
+     * nuevo. Recorre todas las listas de postings una vez.
+     */
+    List<Documento> documentos(Set<Long> excluidos) {
+        List<Map<String, Integer>> terminos = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            terminos.add(excluidos.contains(ids[i]) ? null : new HashMap<>());
+        }
+        for (Map.Entry<String, int[]> entrada : diccionario.entrySet()) {
+            String termino = entrada.getKey();
+            recorrer(termino, (ordinal, tf) -> {
+                Map<String, Integer> mapa = terminos.get(ordinal);
+                if (mapa != null) mapa.put(termino, tf);
+            });
+        }
+        List<Documento> documentos = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (terminos.get(i) == null) continue;
+            documentos.add(new Documento(ids[i], sellos[i], terminos.get(i), titulo(i), extracto(i), autor(i), fecha(i)));
+        }
+        return documentos;
+    }
+
+    /**
+     * Escribe un segmento con los documentos en un archivo temporal, lo sincroniza con el disco
+     * y lo mueve a destino (el archivo queda completo o no queda, aunque se corte la luz).
+     */
+    static void escribir(Path destino, Collection<Documento> documentos) throws IOException {
+        List<Documento> lista = new ArrayList<>(documentos);
+        TreeMap<String, List<int[]>> indice = new TreeMap<>();
+        long largoTotal = 0;
+        for (int ordinal = 0; ordinal < lista.size(); ordinal++) {
+            Documento documento = lista.get(ordinal);
+            largoTotal += documento.largo;
+            for (Map.Entry<String, Integer> termino : documento.terminos.entrySet()) {
+                indice.computeIfAbsent(termino.getKey(), k -> new ArrayList<>())
+                        .add(new int[]{ordinal, termino.getValue()});
+            }
+        }
+
+        // Tamaños de cada sección para calcular los offsets absolutos
+        int cabecera = 4 * 4 + 8;
+        int seccionDocumentos = lista.size() * (8 + 8 + 4 + 4);
+        ByteArrayOutputStream diccionarioBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream postingsBytes = new ByteArrayOutputStream();
+        List<byte[]> terminosUtf8 = new ArrayList<>(indice.size());
+        int largoDiccionario = 0;
+        for (String termino : indice.keySet()) {
+            byte[] utf8 = termino.getBytes(StandardCharsets.UTF_8);
+            terminosUtf8.add(utf8);
+            largoDiccionario += 2 + utf8.length + 4 + 4;
+        }
+        int inicioPostings = cabecera + seccionDocumentos + largoDiccionario;
+
+        DataOutputStream diccionario = new DataOutputStream(diccionarioBytes);
+        DataOutputStream postings = new DataOutputStream(postingsBytes);
+        int t = 0;
+        for (Map.Entry<String, List<int[]>> entrada : indice.entrySet()) {
+            byte[] utf8 = terminosUtf8.get(t++);
+            diccionario.writeShort(utf8.length);
+            diccionario.write(utf8);
+            diccionario.writeInt(entrada.getValue().size());
+            diccionario.writeInt(inicioPostings + postings.size());
+            for (int[] posting : entrada.getValue()) {
+                postings.writeInt(posting[0]);
+                postings.writeInt(posting[1]);
+            }
+        }
+
+        int inicioGuardados = inicioPostings + postings.size();
+        ByteArrayOutputStream guardadosBytes = new ByteArrayOutputStream();
+        DataOutputStream guardados = new DataOutputStream(guardadosBytes);
+        int[] offsetsGuardados = new int[lista.size()];
+        for (int i = 0; i < lista.size(); i++) {
+            Documento documento = lista.get(i);
+            offsetsGuardados[i] = inicioGuardados + guardados.size();
+            escribirCadena(guardados, documento.titulo);
+            escribirCadena(guardados, documento.extracto);
+            escribirCadena(guardados, documento.autor);
+            guardados.writeLong(documento.fecha);
+        }
+
+        Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream archivo = Channels.newOutputStream(canal);
+            DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(archivo, 1 << 16));
+            salida.writeInt(MAGIC);
+            salida.writeInt(VERSION);
+            salida.writeInt(lista.size());
+            salida.writeInt(indice.size());
+            salida.writeLong(largoTotal);
+            for (int i = 0; i < lista.size(); i++) {
+                Documento documento = lista.get(i);
+                salida.writeLong(documento.id);
+                salida.writeLong(documento.sello);
+                salida.writeInt(documento.largo);
+                salida.writeInt(offsetsGuardados[i]);
+            }
+            diccionarioBytes.writeTo(salida);
+            postingsBytes.writeTo(salida);
+            guardadosBytes.writeTo(salida);
+            salida.flush();
+            // Sin esto el rename puede llegar al disco antes que los datos
+            canal.force(true);
+        }
+        Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sincronizarDirectorio(destino.getParent());
+    }
+
+    // Persiste el rename; en Windows no se puede abrir un directorio y se omite
+    private static void sincronizarDirectorio(Path directorio) {
+        if (directorio == null) return;
+        try (FileChannel canal = FileChannel.open(directorio, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // Sin garantía extra: el archivo ya está completo
+        }
+    }
+
+    private static void escribirCadena(DataOutputStream salida, String valor) throws IOException {
+        byte[] bytes = (valor != null ? valor : "").getBytes(StandardCharsets.UTF_8);
+        salida.writeInt(bytes.length);
+        salida.write(bytes);
+    }
+
+    /**
+     * Abre y valida un segmento: tamaños y offsets se comprueban contra el largo del archivo
+     * (un archivo truncado o dañado da IOException, no un error al consultar).
+     */
+    static SegmentoBusqueda abrir(Path archivo) throws IOException {
+        MappedByteBuffer datos;
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE) {
+                throw new IOException("Segmento de búsqueda demasiado grande: " + archivo);
+            }
+            // El mapeo sigue siendo válido después de cerrar el canal
+            datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+        long tamano = datos.capacity();
+        exigir(tamano >= 24 && datos.getInt(0) == MAGIC && datos.getInt(4) == VERSION, archivo);
+        int nDocs = datos.getInt(8);
+        int nTerminos = datos.getInt(12);
+        long largoTotal = datos.getLong(16);
+        // Cada término ocupa al menos 10 bytes en el diccionario
+        exigir(nDocs >= 0 && nTerminos >= 0 && 24 + 24L * nDocs + 10L * nTerminos <= tamano, archivo);
+
+        long[] ids = new long[nDocs];
+        long[] sellos = new long[nDocs];
+        int[] largos = new int[nDocs];
+        int[] guardados = new int[nDocs];
+        int posicion = 24;
+        for (int i = 0; i < nDocs; i++) {
+            ids[i] = datos.getLong(posicion);
+            sellos[i] = datos.getLong(posicion + 8);
+            largos[i] = datos.getInt(posicion + 16);
+            guardados[i] = datos.getInt(posicion + 20);
+            posicion += 24;
+            exigir(camposValidos(datos, guardados[i]), archivo);
+        }
+
+        Map<String, int[]> diccionario = new HashMap<>(nTerminos * 2);
+        for (int i = 0; i < nTerminos; i++) {
+            exigir(posicion + 2L <= tamano, archivo);
+            int largo = datos.getShort(posicion) & 0xFFFF;
+            exigir(posicion + 2L + largo + 8 <= tamano, archivo);
+            byte[] utf8 = new byte[largo];
+            ByteBuffer copia = datos.duplicate();
+            copia.position(posicion + 2);
+            copia.get(utf8);
+            posicion += 2 + largo;
+            int df = datos.getInt(posicion);
+            int offset = datos.getInt(posicion + 4);
+            posicion += 8;
+            exigir(postingsValidos(datos, offset, df, nDocs), archivo);
+            diccionario.put(new String(utf8, StandardCharsets.UTF_8), new int[]{offset, df});
+        }
+        return new SegmentoBusqueda(archivo, datos, ids, sellos, largos, guardados, largoTotal, diccionario);
+    }
+
+    private static void exigir(boolean condicion, Path archivo) throws IOException {
+        if (!condicion) throw new IOException("Segmento de búsqueda inválido o truncado: " + archivo);
+    }
+
+    // Título, extracto y autor (largo int + bytes) y la fecha deben caber en el archivo
+    private static boolean camposValidos(ByteBuffer datos, int posicion) {
+        long tamano = datos.capacity();
+        long actual = posicion;
+        if (actual < 24) return false;
+        for (int i = 0; i < 3; i++) {
+            if (actual + 4 > tamano) return false;
+            int largo = datos.getInt((int) actual);
+            if (largo < 0) return false;
+            actual += 4L + largo;
+        }
+        return actual + 8 <= tamano;
+    }
+
+    // La lista debe caber en el archivo y cada ordinal debe ser un documento del segmento
+    private static boolean postingsValidos(ByteBuffer datos, int offset, int df, int nDocs) {
+        if (offset < 24 || df < 0 || offset + 8L * df > datos.capacity()) return false;
+        for (int i = 0, posicion = offset; i < df; i++, posicion += 8) {
+            int ordinal = datos.getInt(posicion);
+            if (ordinal < 0 || ordinal >= nDocs) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+package servicios;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Mapa de claves long positivas a valores, con direccionamiento abierto (sondeo lineal):
+ * sin un Long ni un nodo por entrada. El 0 marca las celdas vacías, así que no admite la
+ * clave 0 (los ids de las entidades empiezan en 1). No es seguro entre hilos.
+ */
+final class TablaLong<V> {
+
+    private static final int CAPACIDAD_INICIAL = 16;
+
+    private long[] claves;
+    private Object[] valores;
+    private int tamano;
+
+    TablaLong() {
+        claves = new long[CAPACIDAD_INICIAL];
+        valores = new Object[CAPACIDAD_INICIAL];
+    }
+
+    int tamano() {
+        return tamano;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long clave) {
+        int mascara = claves.length - 1;
+        for (int i = indice(clave, mascara); claves[i] != 0; i = (i + 1) & mascara) {
+            if (claves[i] == clave) return (V) valores[i];
+        }
+        return null;
+    }
+
+    void put(long clave, V valor) {
+        if (clave == 0) throw new IllegalArgumentException("La clave 0 no es válida");
+        if ((tamano + 1) * 4 > claves.length * 3) crecer();
+        int mascara = claves.length - 1;
+        int i = indice(clave, mascara);
+        while (claves[i] != 0 && claves[i] != clave) {
+            i = (i + 1) & mascara;
+        }
+        if (claves[i] == 0) tamano++;
+        claves[i] = clave;
+        valores[i] = valor;
+    }
+
+    void remove(long clave) {
+        int mascara = claves.length - 1;
+        int i = indice(clave, mascara);
+        while (claves[i] != clave) {
+            if (claves[i] == 0) return;
+            i = (i + 1) & mascara;
+        }
+        tamano--;
+        // Se corren hacia atrás las entradas siguientes del grupo para no dejar huecos
+        int hueco = i;
+        for (int j = (i + 1) & mascara; claves[j] != 0; j = (j + 1) & mascara) {
+            int ideal = indice(claves[j], mascara);
+            if (((j - ideal) & mascara) >= ((j - hueco) & mascara)) {
+                claves[hueco] = claves[j];
+                valores[hueco] = valores[j];
+                hueco = j;
+            }
+        }
+        claves[hueco] = 0;
+        valores[hueco] = null;
+    }
+
+    void paraCadaClave(LongConsumer accion) {
+        for (long clave : claves) {
+            if (clave != 0) accion.accept(clave);
+        }
+    }
+
+    void limpiar() {
+        Arrays.fill(claves, 0);
+        Arrays.fill(valores, null);
+        tamano = 0;
+    }
+
+    private void crecer() {
+        long[] clavesAnteriores = claves;
+        Object[] valoresAnteriores = valores;
+        claves = new long[clavesAnteriores.length * 2];
+        valores = new Object[clavesAnteriores.length * 2];
+        int mascara = claves.length - 1;
+        for (int k = 0; k < clavesAnteriores.length; k++) {
+            if (clavesAnteriores[k] == 0) continue;
+            int i = indice(clavesAnteriores[k], mascara);
+            while (claves[i] != 0) {
+                i = (i + 1) & mascara;
+            }
+            claves[i] = clavesAnteriores[k];
+            valores[i] = valoresAnteriores[k];
+        }
+    }
+
+    // Mezcla los bits (los ids son consecutivos) antes de tomar la celda
+    private static int indice(long clave, int mascara) {
+        long h = clave * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mascara;
+    }
+}
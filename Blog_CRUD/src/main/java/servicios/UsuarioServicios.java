@@ -1,34 +1,46 @@
 package servicios;
 
 import modelos.User;
+import app.java.CachePaginas;
 import app.java.DatabaseUtil;
 import app.java.PasswordUtil;
+import org.hibernate.Session;
+
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class UsuarioServicios {
 
     public static User autenticar(String username, String password) {
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
-            User user = em.createQuery(
-                            "SELECT u FROM User u WHERE u.username = :username", User.class)
-                    .setParameter("username", username)
-                    .getSingleResult();
+            User user = buscarPorUsername(em, username);
 
             if (user != null && password != null) {
                 boolean ok = PasswordUtil.checkPassword(password, user.getPassword());
                 if (ok) return user;
             }
             return null;
-        } catch (NoResultException e) {
-            return null;
         } finally {
             em.close();
         }
     }
 
+    /**
+     * Igual que autenticar, pero la verificación bcrypt se hace en el pool de PasswordUtil.
+     * La consulta del usuario sí se hace en el hilo que llama.
+     * @throws java.util.concurrent.RejectedExecutionException si el pool de bcrypt está saturado
+     */
+    public static CompletableFuture<User> autenticarAsync(String username, String password) {
+        User user = obtenerUsuarioPorUsername(username);
+        if (user == null || password == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return PasswordUtil.checkPasswordAsync(password, user.getPassword())
+                .thenApply(ok -> ok ? user : null);
+    }
+
     public static List<User> listarUsuarios() {
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
@@ -49,17 +61,72 @@ public class UsuarioServicios {
         }
     }
 
+    /**
+     * Actualiza nombre y username del usuario con ese id y devuelve la entidad actualizada
+     * (null si ya no existe), para refrescar los datos de la sesión.
+     */
+    public static User actualizarDatos(Long id, String nombre, String username) {
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            User usuario = em.find(User.class, id);
+            if (usuario != null) {
+                usuario.setNombre(nombre);
+                usuario.setUsername(username);
+            }
+            em.getTransaction().commit();
+            // Los tokens "Recordar usuario" ya verificados tienen los datos anteriores
+            RecordarSesionServicios.olvidarUsuario(id);
+            // El nombre del autor aparece en las páginas cacheadas
+            CachePaginas.invalidarTodo();
+            BusquedaServicios.marcarAutor(id);
+            return usuario;
+        } finally {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    // Cambia la foto de perfil por una ya guardada en el almacén de avatares
+    public static User actualizarFoto(Long id, String fotoNombre, String fotoMimeType, String fotoHash) {
+        EntityManager em = DatabaseUtil.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            User usuario = em.find(User.class, id);
+            if (usuario != null) {
+                usuario.setFotoNombre(fotoNombre);
+                usuario.setFotoMimeType(fotoMimeType);
+                usuario.setFotoHash(fotoHash);
+                usuario.setFotoBase64(null);
+            }
+            em.getTransaction().commit();
+            // Los tokens "Recordar usuario" ya verificados tienen los datos anteriores
+            RecordarSesionServicios.olvidarUsuario(id);
+            return usuario;
+        } finally {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
     // Nuevo método para obtener un usuario a partir del username
     public static User obtenerUsuarioPorUsername(String username) {
         EntityManager em = DatabaseUtil.getEntityManager();
         try {
-            return em.createQuery("SELECT u FROM User u WHERE u.username = :username", User.class)
-                    .setParameter("username", username)
-                    .getSingleResult();
+            return buscarPorUsername(em, username);
         } catch (Exception e) {
             return null;
         } finally {
             em.close();
         }
     }
+
+    /**
+     * Busca por username (@NaturalId) usando la caché de segundo nivel: si el username y el
+     * usuario están en caché no se consulta la base de datos. Devuelve null si no existe.
+     */
+    public static User buscarPorUsername(EntityManager em, String username) {
+        if (username == null) return null;
+        return em.unwrap(Session.class).bySimpleNaturalId(User.class).load(username);
+    }
 }